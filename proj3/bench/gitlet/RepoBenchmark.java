@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the commands of Repo, each run against a synthetic
+ *  repository made by RepoGenerator in a temporary directory, with the
+ *  shape given by the parameters of Workload.  Commands are performed
+ *  on one Repo, as by Daemon, with their output discarded.
+ *
+ *  Repo's files are fixed when it is loaded, so every trial must run in
+ *  a JVM of its own (the default; not with -f 0).  The benchmarks that
+ *  change the repository (add, commit, checkout, merge) prepare or undo
+ *  each invocation outside the time measured.  See bench/Makefile for
+ *  how to run them and keep the results as JSON.
+ *  @author Marcus Cheung
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepoBenchmark {
+
+    /** Property naming the directory of the repository of this JVM. */
+    static final String DIR_PROPERTY = "gitlet.bench.dir";
+    /** The branch checked out and merged by the benchmarks, besides
+     *  master. */
+    static final String OTHER = RepoGenerator.branch(1);
+
+    /** A synthetic repository, with master checked out. */
+    @State(Scope.Benchmark)
+    public static class Workload {
+        /** Number of files. */
+        @Param({ "1000" })
+        public int files;
+        /** Number of commits. */
+        @Param({ "200" })
+        public int commits;
+        /** Number of branches other than master; at least 1. */
+        @Param({ "3" })
+        public int branches;
+        /** Commits between merges, or 0 for none. */
+        @Param({ "10" })
+        public int mergeEvery;
+        /** Length of each file, in bytes. */
+        @Param({ "4096" })
+        public int fileSize;
+
+        /** Make the repository in a new temporary directory.  Master and
+         *  OTHER are each given one more commit, so that they have
+         *  diverged and OTHER can be merged into master. */
+        @Setup(Level.Trial)
+        public void generate() throws IOException {
+            if (System.getProperty(DIR_PROPERTY) != null) {
+                throw new IllegalStateException("each trial needs a JVM "
+                                                + "of its own");
+            }
+            _dir = Files.createTempDirectory("gitlet-bench").toFile();
+            System.setProperty(DIR_PROPERTY, _dir.getPath());
+            System.setProperty("user.dir", _dir.getPath());
+            generator = new RepoGenerator(files, commits, branches,
+                                          mergeEvery, fileSize, 0);
+            repo = generator.generate();
+            _stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            repo.bcheckout(OTHER);
+            change(RepoGenerator.file(1), "Diverge " + OTHER);
+            repo.bcheckout("master");
+            change(RepoGenerator.file(0), "Diverge master");
+            head = repo.getHead().getID();
+        }
+
+        /** Remove the repository. */
+        @TearDown(Level.Trial)
+        public void remove() throws IOException {
+            System.setOut(_stdout);
+            try (Stream<File> files = Files.walk(_dir.toPath())
+                     .sorted(Comparator.reverseOrder()).map(Path::toFile)) {
+                files.forEach(File::delete);
+            }
+        }
+
+        /** Change the file NAME and commit it with message MSG. */
+        private void change(String name, String msg) throws IOException {
+            generator.edit(name);
+            repo.add(name);
+            repo.commit(msg);
+        }
+
+        /** The generator of the repository, for further changes. */
+        RepoGenerator generator;
+        /** The repository. */
+        Repo repo;
+        /** Id of the head of master once generated. */
+        String head;
+        /** True iff OTHER is checked out. */
+        boolean onOther;
+        /** Directory of the repository. */
+        private File _dir;
+        /** The standard output, restored once done. */
+        private PrintStream _stdout;
+    }
+
+    /** A file of master changed before each invocation. */
+    @State(Scope.Thread)
+    public static class Edited {
+        /** Change the file in W. */
+        @Setup(Level.Invocation)
+        public void edit(Workload w) throws IOException {
+            w.generator.edit(NAME);
+        }
+
+        /** The file changed. */
+        static final String NAME = RepoGenerator.file(0);
+    }
+
+    /** A file of master changed and staged before each invocation. */
+    @State(Scope.Thread)
+    public static class Staged {
+        /** Change and stage the file in W. */
+        @Setup(Level.Invocation)
+        public void stage(Workload w) throws IOException {
+            w.generator.edit(Edited.NAME);
+            w.repo.add(Edited.NAME);
+        }
+    }
+
+    /** Master put back as it was after each invocation. */
+    @State(Scope.Thread)
+    public static class Restored {
+        /** Reset master in W to its head once generated. */
+        @TearDown(Level.Invocation)
+        public void reset(Workload w) throws IOException {
+            w.repo.reset(w.head);
+        }
+    }
+
+    /** Stage a changed file. */
+    @Benchmark
+    public void add(Workload w, Edited e) throws IOException {
+        w.repo.add(Edited.NAME);
+    }
+
+    /** Commit a staged file. */
+    @Benchmark
+    public void commit(Workload w, Staged s) throws IOException {
+        w.repo.commit("Benchmark commit");
+    }
+
+    /** Print the status. */
+    @Benchmark
+    public void status(Workload w) {
+        w.repo.status();
+    }
+
+    /** Print the whole log of master. */
+    @Benchmark
+    public void log(Workload w) {
+        w.repo.log(0, Integer.MAX_VALUE);
+    }
+
+    /** Check out OTHER and master by turns. */
+    @Benchmark
+    public void checkout(Workload w) throws IOException {
+        w.onOther = !w.onOther;
+        w.repo.bcheckout(w.onOther ? OTHER : "master");
+    }
+
+    /** Find a commit by its message. */
+    @Benchmark
+    public void find(Workload w) {
+        w.repo.find(RepoGenerator.message(1, OTHER));
+    }
+
+    /** Merge OTHER into master. */
+    @Benchmark
+    public void merge(Workload w, Restored r) throws IOException {
+        w.repo.merge(OTHER);
+    }
+
+    /** Find the split point of master and OTHER. */
+    @Benchmark
+    public Commit getSplit(Workload w) {
+        return w.repo.getSplit(OTHER);
+    }
+
+}
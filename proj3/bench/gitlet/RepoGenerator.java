@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** A generator of synthetic repositories, for benchmarks.  It makes a
+ *  repository in Repo.CWD holding FILES files of about FILE_SIZE bytes
+ *  of random text each, spread over directories of DIR_SIZE files, and
+ *  a history of COMMITS commits on master and BRANCHES other branches.
+ *  The first commit adds every file; the rest go to each branch in
+ *  turn, each changing a line in each of CHANGES files, and every
+ *  MERGE_EVERY'th commit is followed by a merge of the next branch into
+ *  the one just committed to.  Each branch changes only its own share
+ *  of the files, so merges never conflict.  A given SEED always gives
+ *  the same files and history.
+ *
+ *  Commands are performed as by Main, on one Repo, with their output
+ *  discarded.  Since Repo's files are fixed when it is loaded, the
+ *  system property user.dir must name the (empty) directory of the
+ *  repository before any class of gitlet is used.
+ *  @author Marcus Cheung
+ */
+class RepoGenerator {
+
+    /** Files in each directory. */
+    static final int DIR_SIZE = 64;
+    /** Files changed by each commit after the first. */
+    static final int CHANGES = 4;
+    /** Length of a line of text, including its newline. */
+    static final int LINE = 64;
+    /** Message of the first commit. */
+    static final String FIRST = "Add generated files";
+
+    /** A generator of repositories of FILES files of FILE_SIZE bytes and
+     *  COMMITS commits, on master and BRANCHES other branches, merging
+     *  after every MERGE_EVERY'th commit (never, if 0), using random
+     *  numbers from SEED. */
+    RepoGenerator(int files, int commits, int branches, int mergeEvery,
+                  int fileSize, long seed) {
+        if (files <= branches || commits < 1 || branches < 0
+            || mergeEvery < 0 || fileSize < 0) {
+            throw new IllegalArgumentException("bad repository shape");
+        }
+        _files = files;
+        _commits = commits;
+        _branches = branches;
+        _mergeEvery = mergeEvery;
+        _fileSize = fileSize;
+        _random = new Random(seed);
+    }
+
+    /** Returns the name of branch K: master for 0. */
+    static String branch(int k) {
+        return k == 0 ? "master" : "b" + k;
+    }
+
+    /** Returns the path of file I. */
+    static String file(int i) {
+        return String.format("d%03d/f%05d.txt", i / DIR_SIZE, i);
+    }
+
+    /** Returns the message of commit I, counting from 0. */
+    static String message(int i, String branch) {
+        return i == 0 ? FIRST : "Change " + i + " on " + branch;
+    }
+
+    /** Make the repository, ending with master checked out, and return
+     *  the Repo used. */
+    Repo generate() throws IOException {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            _repo = new Repo();
+            run("init");
+            List<String> all = new ArrayList<>();
+            for (int i = 0; i < _files; i += 1) {
+                Path path = Repo.CWD.toPath().resolve(file(i));
+                Files.createDirectories(path.getParent());
+                Files.write(path, text(_fileSize));
+                all.add(file(i));
+            }
+            run(all.toArray(new String[0]), "add");
+            run("commit", message(0, branch(0)));
+            for (int k = 1; k <= _branches; k += 1) {
+                run("branch", branch(k));
+            }
+            int current = 0;
+            for (int i = 1; i < _commits; i += 1) {
+                int k = i % (_branches + 1);
+                if (k != current) {
+                    run("checkout", branch(k));
+                    current = k;
+                }
+                commit(i, k);
+                if (_mergeEvery > 0 && i % _mergeEvery == 0
+                    && _branches > 0) {
+                    merge(branch((k + 1) % (_branches + 1)));
+                }
+            }
+            if (current != 0) {
+                run("checkout", branch(0));
+            }
+            return _repo;
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /** Make commit I on branch K, which is checked out. */
+    private void commit(int i, int k) throws IOException {
+        List<String> changed = new ArrayList<>();
+        for (int c = 0; c < CHANGES; c += 1) {
+            String name = file(pick(k));
+            edit(name);
+            changed.add(name);
+        }
+        run(changed.toArray(new String[0]), "add");
+        run("commit", message(i, branch(k)));
+    }
+
+    /** Change one line of the file at NAME, or replace it whole if it is
+     *  shorter than a line. */
+    void edit(String name) throws IOException {
+        Path path = Repo.CWD.toPath().resolve(name);
+        byte[] contents = Files.readAllBytes(path);
+        int lines = contents.length / LINE;
+        if (lines == 0) {
+            Files.write(path, text(LINE));
+        } else {
+            byte[] line = text(LINE);
+            System.arraycopy(line, 0, contents,
+                             _random.nextInt(lines) * LINE, LINE);
+            Files.write(path, contents);
+        }
+    }
+
+    /** Merge BRANCH into the current branch, unless one contains the
+     *  other. */
+    private void merge(String branch) throws IOException {
+        try {
+            run("merge", branch);
+        } catch (GitletException excp) {
+            /* Ignore the merges that Gitlet refuses or fast-forwards. */
+        }
+    }
+
+    /** Returns a random file of the share of branch K. */
+    private int pick(int k) {
+        int share = (_files - k + _branches) / (_branches + 1);
+        return k + (_branches + 1) * _random.nextInt(share);
+    }
+
+    /** Returns N bytes of random lines of text. */
+    private byte[] text(int n) {
+        byte[] result = new byte[n];
+        for (int i = 0; i < n; i += 1) {
+            if (i % LINE == LINE - 1 || i == n - 1) {
+                result[i] = '\n';
+            } else if (_random.nextInt(6) == 0) {
+                result[i] = ' ';
+            } else {
+                result[i] = (byte) ('a' + _random.nextInt(26));
+            }
+        }
+        return result;
+    }
+
+    /** Perform the command ARGS. */
+    private void run(String... args) throws IOException {
+        Main.run(_repo, args);
+    }
+
+    /** Perform the command COMMAND on the files NAMES. */
+    private void run(String[] names, String command) throws IOException {
+        String[] args = new String[names.length + 1];
+        args[0] = command;
+        System.arraycopy(names, 0, args, 1, names.length);
+        run(args);
+    }
+
+    /** Usage: java -Duser.dir=DIR gitlet.RepoGenerator FILES COMMITS
+     *  BRANCHES MERGE_EVERY FILE_SIZE [SEED].  Make a repository in DIR,
+     *  which must be empty, as described above. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 5 || args.length > 6) {
+            System.err.println("Usage: java -Duser.dir=DIR "
+                               + "gitlet.RepoGenerator FILES COMMITS "
+                               + "BRANCHES MERGE_EVERY FILE_SIZE [SEED]");
+            System.exit(1);
+        }
+        int[] shape = new int[5];
+        for (int i = 0; i < shape.length; i += 1) {
+            shape[i] = Integer.parseInt(args[i]);
+        }
+        long seed = args.length == 6 ? Long.parseLong(args[5]) : 0;
+        new RepoGenerator(shape[0], shape[1], shape[2], shape[3], shape[4],
+                          seed).generate();
+    }
+
+    /** Number of files. */
+    private final int _files;
+    /** Number of commits. */
+    private final int _commits;
+    /** Number of branches other than master. */
+    private final int _branches;
+    /** Commits between merges, or 0 for none. */
+    private final int _mergeEvery;
+    /** Length of each file. */
+    private final int _fileSize;
+    /** Source of the contents of files and of the files changed. */
+    private final Random _random;
+    /** The repository being made. */
+    private Repo _repo;
+
+}
@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Reachability bitmaps: for some commits, the set of every commit, tree
+ *  and blob reachable from it, as an Ewah bitmap over a numbering of the
+ *  objects.  The objects reachable from any commit are the union of the
+ *  bitmaps of the nearest commits behind it that have one, plus whatever
+ *  a walk finds on the way to them, so questions such as which objects
+ *  are reachable from one branch but not another become a short walk and
+ *  a few bitwise operations, without reading the trees behind the
+ *  bitmaps.
+ *
+ *  The numbering is kept in OBJECTS, a series of records
+ *      kind(1) id(20)
+ *  one per object, in order of number; it is only ever appended to, so
+ *  numbers are stable.  Objects are numbered as walks first reach them,
+ *  each tree after everything in it and each commit after its tree, so
+ *  that in order of number every object comes after those it refers to.
+ *  INDEX holds, after the Codec header, the number of objects it covers
+ *  and then its bitmaps,
+ *      count(4) { commit(20) bitmap }*
+ *  It is rewritten whole by refresh, which gives a bitmap to each branch
+ *  head and to every SPACING'th commit in the commit graph that lacks
+ *  one, walking from each only as far as the bitmaps already there.
+ *  @author Marcus Cheung
+ */
+class Bitmaps {
+
+    /** Directory holding the bitmaps. */
+    static final File DIR = Utils.join(Repo.GITLET, "bitmaps");
+    /** File of the numbering. */
+    static final File OBJECTS = Utils.join(DIR, "objects");
+    /** File of the bitmaps. */
+    static final File INDEX = Utils.join(DIR, "index");
+    /** Kind of a numbered commit. */
+    static final byte COMMIT = 0;
+    /** Kind of a numbered tree. */
+    static final byte TREE = 1;
+    /** Kind of a numbered blob. */
+    static final byte BLOB = 2;
+    /** Positions in the commit graph between commits given bitmaps. */
+    static final int SPACING = 64;
+    /** Length of a record of the numbering. */
+    static final int RECORD = 1 + Utils.UID_BYTES;
+
+    /** The bitmaps, kept in OBJECTS and INDEX, of the commits in GRAPH. */
+    Bitmaps(File objects, File index, CommitGraph graph) {
+        _objectsFile = objects;
+        _indexFile = index;
+        _graph = graph;
+    }
+
+    /** Returns the set of the numbers of every object reachable from
+     *  COMMITS. */
+    Ewah reachable(Collection<String> commits) {
+        return Ewah.of(walk(commits));
+    }
+
+    /** Returns the set of the numbers of every object of kind KIND. */
+    Ewah ofKind(byte kind) {
+        load();
+        return Ewah.of(_kinds[kind]);
+    }
+
+    /** Returns the id of the object numbered N. */
+    String id(int n) {
+        load();
+        return _ids.get(n);
+    }
+
+    /** Returns the kind of the object numbered N. */
+    byte kind(int n) {
+        load();
+        return _kinds[TREE].get(n) ? TREE : _kinds[BLOB].get(n) ? BLOB
+            : COMMIT;
+    }
+
+    /** Add to TREES and BLOBS the trees and blobs reachable from COMMITS
+     *  but not from HAVES, in order of number, so each tree comes after
+     *  the trees and blobs in it. */
+    void objects(Collection<String> commits, Collection<String> haves,
+                 List<String> trees, List<String> blobs) {
+        Ewah send = reachable(commits).andNot(reachable(haves));
+        send.forEach(n -> {
+            byte kind = kind(n);
+            if (kind == TREE) {
+                trees.add(_ids.get(n));
+            } else if (kind == BLOB) {
+                blobs.add(_ids.get(n));
+            }
+        });
+    }
+
+    /** Give a bitmap to each of HEADS and to every SPACING'th commit of
+     *  the commit graph that lacks one, and write the bitmaps. */
+    void refresh(Collection<String> heads) {
+        load();
+        TreeSet<Integer> selected = new TreeSet<>();
+        for (String id : heads) {
+            int pos = _graph.position(id);
+            if (pos != CommitGraph.NONE) {
+                selected.add(pos);
+            }
+        }
+        for (int pos = SPACING - 1; pos < _graph.size(); pos += SPACING) {
+            selected.add(pos);
+        }
+        for (int pos : selected) {
+            String id = _graph.id(pos);
+            if (!_bitmaps.containsKey(id)) {
+                _bitmaps.put(id, reachable(List.of(id)));
+            }
+        }
+        write();
+    }
+
+    /** Drop the bitmaps of commits no longer in the commit graph, and
+     *  write the rest. */
+    void prune() {
+        load();
+        Iterator<String> ids = _bitmaps.keySet().iterator();
+        while (ids.hasNext()) {
+            if (_graph.position(ids.next()) == CommitGraph.NONE) {
+                ids.remove();
+            }
+        }
+        write();
+    }
+
+    /** Returns the set of the numbers of the objects reachable from
+     *  COMMITS, numbering those not yet numbered.  The commit graph is
+     *  walked first, as far as commits with bitmaps, and the commits
+     *  without are then walked oldest first, so that the trees each
+     *  shares with its parents are already in the set and not read. */
+    private BitSet walk(Collection<String> commits) {
+        load();
+        BitSet result = new BitSet();
+        TreeSet<Integer> unmapped = new TreeSet<>();
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (String id : commits) {
+            work.push(_graph.position(id));
+        }
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos == CommitGraph.NONE || seen.get(pos)) {
+                continue;
+            }
+            seen.set(pos);
+            Ewah known = _bitmaps.get(_graph.id(pos));
+            if (known != null) {
+                result.or(known.toBitSet());
+            } else {
+                unmapped.add(pos);
+                work.push(_graph.parent1(pos));
+                work.push(_graph.parent2(pos));
+            }
+        }
+        for (int pos : unmapped) {
+            String id = _graph.id(pos);
+            walkTree(Commit.read(id).getTree(), result);
+            result.set(number(id, COMMIT));
+        }
+        return result;
+    }
+
+    /** Add to RESULT the tree named ID and everything in it, unless it is
+     *  already there. */
+    private void walkTree(String id, BitSet result) {
+        Integer n = _numbers.get(id);
+        if (n != null && result.get(n)) {
+            return;
+        }
+        Tree.entries(id, sub -> walkTree(sub, result),
+                     blob -> result.set(number(blob, BLOB)));
+        result.set(number(id, TREE));
+    }
+
+    /** Returns the number of the object ID, of kind KIND, numbering it if
+     *  it has no number. */
+    private int number(String id, byte kind) {
+        Integer n = _numbers.get(id);
+        if (n == null) {
+            n = _ids.size();
+            _ids.add(id);
+            _numbers.put(id, n);
+            _kinds[kind].set(n);
+        }
+        return n;
+    }
+
+    /** Read the numbering and bitmaps, if not yet read.  A partial
+     *  record left at the end of the numbering by an interrupted write is
+     *  discarded, and bitmaps covering objects beyond the numbering are
+     *  ignored. */
+    private void load() {
+        if (_ids != null) {
+            return;
+        }
+        _ids = new ArrayList<>();
+        _numbers = new HashMap<>();
+        _kinds = new BitSet[] { new BitSet(), new BitSet(), new BitSet() };
+        _bitmaps = new HashMap<>();
+        if (_objectsFile.exists()) {
+            ByteBuffer in = ByteBuffer.wrap(Utils.readContents(_objectsFile));
+            while (in.remaining() >= RECORD) {
+                byte kind = in.get();
+                number(Codec.readId(in), kind);
+            }
+            if (in.hasRemaining()) {
+                Journal.truncate(_objectsFile, in.position());
+            }
+        }
+        _written = _ids.size();
+        if (_indexFile.exists()) {
+            ByteBuffer in = Codec.open(Utils.readContents(_indexFile),
+                                       Codec.BITMAPS);
+            if (in.getInt() <= _ids.size()) {
+                for (int k = in.getInt(); k > 0; k -= 1) {
+                    String id = Codec.readId(in);
+                    _bitmaps.put(id, Ewah.read(in));
+                }
+            }
+        }
+    }
+
+    /** Append the objects numbered since the last write to the
+     *  numbering, then replace the index. */
+    private void write() {
+        _objectsFile.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_objectsFile, true)))) {
+            for (int n = _written; n < _ids.size(); n += 1) {
+                out.writeByte(kind(n));
+                Codec.writeId(out, _ids.get(n));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _written = _ids.size();
+        File tmp = new File(_indexFile.getPath() + ".tmp");
+        Utils.writeContents(tmp, Codec.encode(Codec.BITMAPS, out -> {
+            out.writeInt(_ids.size());
+            out.writeInt(_bitmaps.size());
+            for (Map.Entry<String, Ewah> e : _bitmaps.entrySet()) {
+                Codec.writeId(out, e.getKey());
+                e.getValue().write(out);
+            }
+        }));
+        if (!tmp.renameTo(_indexFile)) {
+            throw new IllegalArgumentException("could not replace "
+                                               + _indexFile);
+        }
+    }
+
+    /** File of the numbering. */
+    private final File _objectsFile;
+    /** File of the bitmaps. */
+    private final File _indexFile;
+    /** The commit graph. */
+    private final CommitGraph _graph;
+    /** Ids of the objects, by number, or null if not yet read. */
+    private ArrayList<String> _ids;
+    /** Numbers of the objects, by id. */
+    private HashMap<String, Integer> _numbers;
+    /** Numbers of the objects of each kind, indexed by kind. */
+    private BitSet[] _kinds;
+    /** Bitmaps, by commit id. */
+    private HashMap<String, Ewah> _bitmaps;
+    /** Number of objects in the numbering file. */
+    private int _written;
+
+}
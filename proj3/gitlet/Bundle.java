@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** The objects one repository sends another in a transfer, written as
+ *  one stream: after MAGIC, VERSION and the kind BUNDLE, a series of
+ *  records
+ *      kind(1) id(20) body
+ *  ended by END.  A tree or commit body is length(4) bytes; a blob body
+ *  is a series of chunks, length(4) bytes, ended by an empty chunk, so
+ *  that no blob need be held in memory.  Blobs come first, then trees,
+ *  each after its subtrees, then commits, parents first: a receiver that
+ *  stores the objects as they arrive never holds an object without
+ *  those it refers to, even if the transfer is cut short.  Blobs and
+ *  trees are checked against their ids as they are stored, and large
+ *  blobs are stored chunked, as they would be by add.
+ *  @author Marcus Cheung
+ */
+class Bundle {
+
+    /** Kind of the record ending a bundle. */
+    static final byte END = 0;
+    /** Kind of a blob record. */
+    static final byte BLOB = 1;
+    /** Kind of a tree record. */
+    static final byte TREE = 2;
+    /** Kind of a commit record. */
+    static final byte COMMIT = 3;
+    /** Largest chunk of a blob. */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /** The bundle of COMMITS, commits of FROM given parents first, and of
+     *  the trees and blobs they refer to that TO lacks.  HAVES are
+     *  commits TO has, from which it has every object reachable. */
+    Bundle(Remote from, Remote to, List<String> commits,
+           List<String> haves) {
+        _from = from;
+        _to = to;
+        _commits = commits;
+        if (commits.isEmpty()) {
+            return;
+        } else if (from.bitmaps() != null) {
+            List<String> trees = new ArrayList<>(), blobs = new ArrayList<>();
+            from.bitmaps().objects(commits, haves, trees, blobs);
+            for (String id : trees) {
+                if (!to.trees().contains(id)) {
+                    _trees.add(id);
+                }
+            }
+            for (String id : blobs) {
+                if (!to.blobs().contains(id)) {
+                    _blobs.add(id);
+                }
+            }
+        } else {
+            for (String id : commits) {
+                collect(Commit.decode(from.commits().read(id)).getTree());
+            }
+        }
+    }
+
+    /** Add the tree named ID, if TO lacks it, to _trees after its
+     *  subtrees, and the blobs it refers to that TO lacks to _blobs.
+     *  Trees TO has are not read. */
+    private void collect(String id) {
+        if (!_seenTrees.add(id) || _to.trees().contains(id)) {
+            return;
+        }
+        Tree.entries(_from.trees().read(id), this::collect, blob -> {
+            if (_seenBlobs.add(blob) && !_to.blobs().contains(blob)) {
+                _blobs.add(blob);
+            }
+        });
+        _trees.add(id);
+    }
+
+    /** Write me to OUT. */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data =
+            new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+        data.writeInt(Codec.MAGIC);
+        data.writeByte(Codec.VERSION);
+        data.writeByte(Codec.BUNDLE);
+        byte[] buffer = new byte[CHUNK_SIZE];
+        for (String id : _blobs) {
+            data.writeByte(BLOB);
+            Codec.writeId(data, id);
+            try (InputStream in = _from.blobs().open(id)) {
+                for (int n = in.readNBytes(buffer, 0, buffer.length); n > 0;
+                     n = in.readNBytes(buffer, 0, buffer.length)) {
+                    data.writeInt(n);
+                    data.write(buffer, 0, n);
+                }
+            }
+            data.writeInt(0);
+        }
+        for (String id : _trees) {
+            writeRecord(data, TREE, id, _from.trees().read(id));
+        }
+        for (String id : _commits) {
+            writeRecord(data, COMMIT, id, _from.commits().read(id));
+        }
+        data.writeByte(END);
+        data.flush();
+    }
+
+    /** Write to OUT a record of kind KIND for the object ID holding
+     *  CONTENTS. */
+    private static void writeRecord(DataOutputStream out, byte kind,
+                                    String id, byte[] contents)
+        throws IOException {
+        out.writeByte(kind);
+        Codec.writeId(out, id);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /** Store in TO each object of the bundle read from IN, and return its
+     *  commits, in order. */
+    static List<Commit> read(InputStream in, Remote to) throws IOException {
+        DataInputStream data =
+            new DataInputStream(new BufferedInputStream(in, CHUNK_SIZE));
+        if (data.readInt() != Codec.MAGIC || data.readByte() != Codec.VERSION
+            || data.readByte() != Codec.BUNDLE) {
+            throw new IllegalArgumentException("not a bundle");
+        }
+        List<Commit> commits = new ArrayList<>();
+        for (byte kind = data.readByte(); kind != END;
+             kind = data.readByte()) {
+            String id = Codec.readId(data);
+            String stored;
+            if (kind == BLOB) {
+                stored = to.blobs().write(new Chunks(data));
+            } else {
+                byte[] contents = new byte[data.readInt()];
+                data.readFully(contents);
+                if (kind == TREE) {
+                    stored = to.trees().write(contents);
+                } else if (kind == COMMIT) {
+                    Commit c = Commit.decode(contents);
+                    if (!c.getID().equals(id)) {
+                        throw new IllegalArgumentException("corrupt object "
+                                                           + id);
+                    }
+                    if (!to.commits().contains(id)) {
+                        to.commits().write(id, contents);
+                    }
+                    commits.add(c);
+                    stored = c.getID();
+                } else {
+                    throw new IllegalArgumentException("bad bundle record");
+                }
+            }
+            if (!stored.equals(id)) {
+                throw new IllegalArgumentException("corrupt object " + id);
+            }
+        }
+        return commits;
+    }
+
+    /** The contents of a blob record, read from its chunks. */
+    private static class Chunks extends InputStream {
+        /** The chunks of a blob record in IN. */
+        Chunks(DataInputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_left == 0 && !_done) {
+                _left = _in.readInt();
+                _done = _left == 0;
+            }
+            if (_done) {
+                return -1;
+            }
+            int n = _in.read(b, off, Math.min(len, _left));
+            if (n < 0) {
+                throw new IOException("bundle cut short");
+            }
+            _left -= n;
+            return n;
+        }
+
+        /** Leaves the underlying stream open, for the records after. */
+        @Override
+        public void close() {
+        }
+
+        /** Stream holding the chunks. */
+        private final DataInputStream _in;
+        /** Bytes left in the current chunk. */
+        private int _left;
+        /** True once the empty chunk has been read. */
+        private boolean _done;
+    }
+
+    /** The sending repository. */
+    private final Remote _from;
+    /** The receiving repository. */
+    private final Remote _to;
+    /** Commits to send, parents first. */
+    private final List<String> _commits;
+    /** Trees to send, each after its subtrees. */
+    private final List<String> _trees = new ArrayList<>();
+    /** Blobs to send. */
+    private final List<String> _blobs = new ArrayList<>();
+    /** Trees visited by collect. */
+    private final Set<String> _seenTrees = new HashSet<>();
+    /** Blobs visited by collect. */
+    private final Set<String> _seenBlobs = new HashSet<>();
+
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+/** Large blobs, each kept as a series of chunks.  A chunked blob is
+ *  still named by the hash of its whole contents, but what is stored
+ *  under that name, in MANIFESTS, is a manifest listing its chunks,
+ *      count(4) { chunk(20) length(4) }*
+ *  after the Codec header; each chunk is an object of CHUNKS named by
+ *  the hash of its own contents.  Chunks are shared by every version of
+ *  every file that contains them, so a small edit to a large file costs
+ *  only the chunks around the edit and a new manifest.
+ *
+ *  Chunk boundaries depend only on the bytes near them, so that an edit
+ *  moves no boundary far from it.  They are found by FastCDC: a gear
+ *  hash, fp = (fp << 1) + GEAR[b], whose high bits depend on the last 64
+ *  bytes, is updated from MIN_CHUNK bytes into the chunk, and a boundary
+ *  falls after the first byte at which the bits selected by a mask are
+ *  all 0.  A stricter mask is used before AVG_CHUNK bytes and a looser
+ *  one after, which draws chunk sizes towards AVG_CHUNK; no chunk is
+ *  longer than MAX_CHUNK.
+ *  @author Marcus Cheung
+ */
+class ChunkStore {
+
+    /** Smallest blob, in bytes, that is chunked. */
+    static final int THRESHOLD = 1 << 20;
+    /** Shortest chunk, but for the last of a blob. */
+    static final int MIN_CHUNK = 1 << 14;
+    /** Usual length of a chunk. */
+    static final int AVG_CHUNK = 1 << 16;
+    /** Longest chunk. */
+    static final int MAX_CHUNK = 1 << 18;
+    /** Bits tested for a boundary before AVG_CHUNK bytes. */
+    static final long MASK_SMALL = -1L << (64 - 18);
+    /** Bits tested for a boundary after AVG_CHUNK bytes. */
+    static final long MASK_LARGE = -1L << (64 - 14);
+    /** Gear hash of each byte value: fixed pseudo-random words, from the
+     *  SplitMix64 generator, so that every repository cuts alike. */
+    static final long[] GEAR = new long[256];
+
+    static {
+        long x = 0;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            x += 0x9e3779b97f4a7c15L;
+            long z = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** A store whose manifests are kept in MANIFESTS and whose chunks are
+     *  kept in CHUNKS. */
+    ChunkStore(LooseStore manifests, LooseStore chunks) {
+        _manifests = manifests;
+        _chunks = chunks;
+    }
+
+    /** Returns true iff I hold the blob named ID. */
+    boolean contains(String id) {
+        return _manifests.contains(id);
+    }
+
+    /** Returns the ids of the chunks of the blob named ID, in order. */
+    List<String> chunks(String id) {
+        ByteBuffer in = Codec.open(_manifests.read(id), Codec.MANIFEST);
+        List<String> result = new ArrayList<>();
+        for (int k = in.getInt(); k > 0; k -= 1) {
+            result.add(Codec.readId(in));
+            in.getInt();
+        }
+        return result;
+    }
+
+    /** Returns a stream over the contents of the blob named ID, which
+     *  opens each chunk only when the one before it is used up. */
+    InputStream open(String id) {
+        Iterator<String> chunks = chunks(id).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return _chunks.open(chunks.next());
+            }
+        });
+    }
+
+    /** Store the contents of SOURCE, to its end, as a chunked blob, and
+     *  return its id.  Chunks I already hold are not written again, and
+     *  no more than two chunks' worth of SOURCE is in memory at once. */
+    String write(InputStream source) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<String> ids = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        byte[] buffer = new byte[2 * MAX_CHUNK];
+        int start = 0, end = 0;
+        boolean eof = false;
+        try {
+            while (true) {
+                if (!eof && end - start < MAX_CHUNK) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int n = source.readNBytes(buffer, end,
+                                              buffer.length - end);
+                    end += n;
+                    eof = end < buffer.length;
+                }
+                if (start == end) {
+                    break;
+                }
+                int len = cut(buffer, start, end);
+                byte[] chunk = Arrays.copyOfRange(buffer, start,
+                                                  start + len);
+                md.update(chunk);
+                ids.add(_chunks.write(chunk));
+                lengths.add(len);
+                start += len;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.toHex(md.digest());
+        if (!contains(id)) {
+            _manifests.write(id, Codec.encode(Codec.MANIFEST, out -> {
+                out.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    Codec.writeId(out, ids.get(i));
+                    out.writeInt(lengths.get(i));
+                }
+            }));
+        }
+        return id;
+    }
+
+    /** Returns the length of the chunk at the start of DATA[START ..
+     *  END). */
+    static int cut(byte[] data, int start, int end) {
+        int n = end - start;
+        if (n <= MIN_CHUNK) {
+            return n;
+        }
+        n = Math.min(n, MAX_CHUNK);
+        int normal = Math.min(n, AVG_CHUNK);
+        long fp = 0;
+        int i;
+        for (i = MIN_CHUNK; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[data[start + i] & 0xff];
+            if ((fp & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fp = (fp << 1) + GEAR[data[start + i] & 0xff];
+            if ((fp & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Returns my manifests. */
+    LooseStore manifests() {
+        return _manifests;
+    }
+
+    /** Returns my chunks. */
+    LooseStore chunks() {
+        return _chunks;
+    }
+
+    /** Manifests of my blobs, by blob id. */
+    private final LooseStore _manifests;
+    /** My chunks. */
+    private final LooseStore _chunks;
+
+}
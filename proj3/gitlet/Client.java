@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/** A thin client for Daemon.  "java gitlet.Client ARGS" sends ARGS and
+ *  the current directory to the daemon serving the repository in the
+ *  current directory, copies what the command writes to its own standard
+ *  output and error, and exits with the command's exit code.  If no
+ *  daemon is running, or the daemon refuses the request, it runs the
+ *  command itself, exactly as gitlet.Main would.
+ *
+ *  The client is kept small so that it loads few classes, but it still
+ *  starts a JVM; what it saves is the daemon's warm state.
+ *  @author Marcus Cheung
+ */
+public class Client {
+
+    /** Socket of the daemon, relative to the top of the repository, which
+     *  keeps its name short enough for a socket address.  It is here
+     *  rather than in Daemon so that the client need not load Repo. */
+    static final Path SOCKET = Path.of(".gitlet", "daemon.sock");
+
+    /** Usage: java gitlet.Client ARGS, where ARGS are as for Main. */
+    public static void main(String... args) throws IOException {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int code;
+        try (channel) {
+            code = forward(channel, traced(args));
+        }
+        if (code < 0) {
+            Main.main(args);
+        } else {
+            System.exit(code);
+        }
+    }
+
+    /** Returns ARGS, preceded by the "--trace" flag that GITLET_TRACE
+     *  asks for, if it is set and ARGS do not already start with one.
+     *  The daemon does not see the environment of its clients, so the
+     *  trace mode travels with the command.  It is here rather than in
+     *  Main for the same reason as SOCKET. */
+    static String[] traced(String... args) {
+        String trace = System.getenv("GITLET_TRACE");
+        if (trace == null
+            || (args.length > 0 && args[0].startsWith("--trace"))) {
+            return args;
+        }
+        String[] result = new String[args.length + 1];
+        result[0] = trace.equals("json") ? "--trace=json" : "--trace";
+        System.arraycopy(args, 0, result, 1, args.length);
+        return result;
+    }
+
+    /** Returns true iff a daemon is serving the current directory. */
+    static boolean running() throws IOException {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        channel.close();
+        return true;
+    }
+
+    /** Ask the daemon serving the current directory, if any, to stop. */
+    static void stop() throws IOException {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            throw new GitletException("No daemon is running.");
+        }
+        try (channel) {
+            forward(channel, "daemon", "--stop");
+        }
+    }
+
+    /** Returns a channel connected to the daemon serving the current
+     *  directory, or null if there is none. */
+    private static SocketChannel connect() {
+        if (!SOCKET.toFile().exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Send ARGS to the daemon over CHANNEL, copy its output to mine, and
+     *  return its exit code, or -1 if it refused the request. */
+    private static int forward(SocketChannel channel, String... args)
+        throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(channel)));
+        out.writeInt(args.length);
+        for (String arg : args) {
+            Codec.writeString(out, arg);
+        }
+        Codec.writeString(out, System.getProperty("user.dir"));
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel), Daemon.FRAME_SIZE));
+        byte[] buffer = new byte[Daemon.FRAME_SIZE];
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == Daemon.REFUSED) {
+                    return -1;
+                } else if (kind == Daemon.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+                PrintStream stream =
+                    kind == Daemon.ERROR ? System.err : System.out;
+                for (int len = in.readInt(); len > 0; ) {
+                    int n = Math.min(len, buffer.length);
+                    in.readFully(buffer, 0, n);
+                    stream.write(buffer, 0, n);
+                    len -= n;
+                }
+            }
+        } catch (EOFException excp) {
+            System.out.flush();
+            System.err.println("gitlet: daemon exited during the command");
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Compact binary encodings of gitlet's metadata.  Every metadata file
+ *  starts with MAGIC, VERSION and a one-byte KIND.  Strings are written as
+ *  a 4-byte length followed by that many bytes of UTF-8, with length -1
+ *  standing for null.  Ids are written as their UID_BYTES raw bytes.
+ *  @author Marcus Cheung
+ */
+class Codec {
+
+    /** First word of every metadata file. */
+    static final int MAGIC = 0x474c4d44;
+    /** Format version of metadata files. */
+    static final byte VERSION = 1;
+    /** Kind of a file holding one string. */
+    private static final byte STRING = 1;
+    /** Kind of a file holding a list of strings. */
+    private static final byte LIST = 2;
+    /** Kind of a file holding a map from strings to strings. */
+    private static final byte MAP = 3;
+    /** Kind of a file holding a map from strings to lists of strings. */
+    private static final byte LIST_MAP = 4;
+    /** Kind of an encoded commit. */
+    static final byte COMMIT = 5;
+    /** Kind of an encoded tree. */
+    static final byte TREE = 6;
+    /** Kind of a bundle of objects sent between repositories. */
+    static final byte BUNDLE = 7;
+    /** Kind of a file of reachability bitmaps. */
+    static final byte BITMAPS = 8;
+    /** Kind of a manifest of the chunks of a blob. */
+    static final byte MANIFEST = 9;
+    /** Kind of the index of the working directory. */
+    static final byte INDEX = 10;
+
+    /* PRIMITIVES */
+
+    /** Write S, which may be null, to OUT. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** Returns the next string, possibly null, in IN. */
+    static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[len];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String result = new String(in.array(), in.arrayOffset()
+                                   + in.position(), len,
+                                   StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return result;
+    }
+
+    /** Skip the next string in IN. */
+    static void skipString(ByteBuffer in) {
+        int len = in.getInt();
+        in.position(in.position() + Math.max(len, 0));
+    }
+
+    /** Write the full hexadecimal id ID to OUT as raw bytes. */
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(Utils.toBytes(id));
+    }
+
+    /** Returns the next raw id in IN as a hexadecimal numeral. */
+    static String readId(ByteBuffer in) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        in.get(id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the next raw id in IN as a hexadecimal numeral. */
+    static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_BYTES];
+        in.readFully(id);
+        return Utils.toHex(id);
+    }
+
+    /* METADATA FILES */
+
+    /** Write the string S to FILE. */
+    static void writeString(File file, String s) {
+        Utils.writeContents(file,
+                            encode(STRING, out -> writeString(out, s)));
+    }
+
+    /** Returns the string stored in FILE. */
+    static String readString(File file) {
+        return readString(open(file, STRING));
+    }
+
+    /** Write the list L to FILE. */
+    static void writeList(File file, List<String> l) {
+        Utils.writeContents(file,
+                            encode(LIST, out -> writeStrings(out, l)));
+    }
+
+    /** Returns the list stored in FILE. */
+    static ArrayList<String> readList(File file) {
+        return readStrings(open(file, LIST));
+    }
+
+    /** Write the map M to FILE. */
+    static void writeMap(File file, Map<String, String> m) {
+        Utils.writeContents(file, encode(MAP, out -> {
+            out.writeInt(m.size());
+            for (Map.Entry<String, String> e : m.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        }));
+    }
+
+    /** Returns the map stored in FILE, in the order it was written. */
+    static LinkedHashMap<String, String> readMap(File file) {
+        ByteBuffer in = open(file, MAP);
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String key = readString(in);
+            result.put(key, readString(in));
+        }
+        return result;
+    }
+
+    /** Write the map of lists M to FILE. */
+    static void writeListMap(File file,
+                             Map<String, ? extends List<String>> m) {
+        Utils.writeContents(file, encode(LIST_MAP, out -> {
+            out.writeInt(m.size());
+            for (Map.Entry<String, ? extends List<String>> e
+                     : m.entrySet()) {
+                writeString(out, e.getKey());
+                writeStrings(out, e.getValue());
+            }
+        }));
+    }
+
+    /** Returns the map of lists stored in FILE, in the order it was
+     *  written. */
+    static LinkedHashMap<String, ArrayList<String>> readListMap(File file) {
+        ByteBuffer in = open(file, LIST_MAP);
+        LinkedHashMap<String, ArrayList<String>> result =
+            new LinkedHashMap<>();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String key = readString(in);
+            result.put(key, readStrings(in));
+        }
+        return result;
+    }
+
+    /** Write the size of L followed by its elements to OUT. */
+    private static void writeStrings(DataOutputStream out, List<String> l)
+        throws IOException {
+        out.writeInt(l.size());
+        for (String s : l) {
+            writeString(out, s);
+        }
+    }
+
+    /** Returns a list read from IN as written by writeStrings. */
+    private static ArrayList<String> readStrings(ByteBuffer in) {
+        int n = in.getInt();
+        ArrayList<String> result = new ArrayList<>(n);
+        for (; n > 0; n -= 1) {
+            result.add(readString(in));
+        }
+        return result;
+    }
+
+    /** Something that writes a value to a stream. */
+    interface Writer {
+        /** Write my value to OUT. */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Returns the header for a metadata file of kind KIND followed by
+     *  whatever BODY writes. */
+    static byte[] encode(byte kind, Writer body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(kind);
+            body.write(out);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a buffer over the contents of FILE positioned just past its
+     *  header, checking that it is a metadata file of kind KIND. */
+    private static ByteBuffer open(File file, byte kind) {
+        return open(Utils.readContents(file), kind);
+    }
+
+    /** Returns a buffer over DATA positioned just past its header,
+     *  checking that it is an encoding of kind KIND. */
+    static ByteBuffer open(byte[] data, byte kind) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION
+                || in.get() != kind) {
+                throw new IllegalArgumentException("bad metadata header");
+            }
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated metadata");
+        }
+        return in;
+    }
+
+}
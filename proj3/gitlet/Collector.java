@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** A mark-and-sweep collector of the objects of a repository that can
+ *  no longer be reached.  Commits are marked if reachable from a branch
+ *  or from a commit written within the grace period; trees and blobs
+ *  are marked if reachable from a marked commit, from a tree written
+ *  within the grace period, or, for blobs, from the index.  Loose
+ *  objects that are neither marked nor written within the grace period
+ *  are then deleted, so that an object written by a command still
+ *  running, and everything it refers to, survives.
+ *
+ *  Memory is bounded by spreading the work over the 256 fan-out
+ *  directories of the loose stores.  Marked commits are kept as one bit
+ *  per position in the commit graph, and marked trees in memory, since
+ *  the walk must not read a shared tree twice; but marked blobs, which
+ *  are far more numerous, are appended to one spill file per fan-out
+ *  directory and read back one directory at a time as that directory
+ *  is swept.  Each directory is swept on its own, so an interrupted
+ *  collection leaves a consistent, partly collected repository.
+ *
+ *  Trees and blobs already known to be reachable, from the reachability
+ *  bitmaps of the branch heads, are marked without reading any tree.
+ *  The chunks of a chunked blob are marked, once the blobs are, if the
+ *  blob is marked or its manifest was written within the grace period.
+ *  @author Marcus Cheung
+ */
+class Collector {
+
+    /** Number of fan-out directories. */
+    static final int PARTITIONS = 256;
+
+    /** A collector for the repository whose commit graph is GRAPH, whose
+     *  branches point to HEADS and whose index holds STAGED.  Objects
+     *  last modified at or after CUTOFF, in milliseconds since the epoch,
+     *  are within the grace period.  Spill files are kept in SPILL. */
+    Collector(CommitGraph graph, Collection<String> heads,
+              Collection<String> staged, long cutoff, File spill) {
+        _graph = graph;
+        _heads = heads;
+        _staged = staged;
+        _cutoff = cutoff;
+        _spill = spill;
+    }
+
+    /** Take every object in REACHABLE, a set of the numbers of objects
+     *  in NUMBERING, to be reachable, so that mark reads none of the trees
+     *  among them. */
+    void assume(Bitmaps numbering, Ewah reachable) {
+        _numbering = numbering;
+        _assumed = reachable;
+    }
+
+    /** Mark every reachable object, including the chunks of the blobs
+     *  of CHUNKED. */
+    void mark(ChunkStore chunked) throws IOException {
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (String id : _heads) {
+            work.push(_graph.position(id));
+        }
+        for (int p = 0; p < PARTITIONS; p += 1) {
+            for (String id : Commit.STORE.ids(partition(p))) {
+                if (young(Commit.STORE.file(id))) {
+                    work.push(_graph.position(id));
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos == CommitGraph.NONE || _commits.get(pos)) {
+                continue;
+            }
+            _commits.set(pos);
+            work.push(_graph.parent1(pos));
+            work.push(_graph.parent2(pos));
+        }
+        cleanUp();
+        _spill.mkdirs();
+        _out = new DataOutputStream[PARTITIONS];
+        try {
+            if (_assumed != null) {
+                _assumed.forEach(n -> {
+                    byte kind = _numbering.kind(n);
+                    if (kind == Bitmaps.TREE) {
+                        _trees.add(_numbering.id(n));
+                    } else if (kind == Bitmaps.BLOB) {
+                        spill(_numbering.id(n));
+                    }
+                });
+            }
+            for (int pos = _commits.nextSetBit(0); pos >= 0;
+                 pos = _commits.nextSetBit(pos + 1)) {
+                Tree.reachable(Commit.read(_graph.id(pos)).getTree(),
+                               _trees, this::spill);
+            }
+            for (int p = 0; p < PARTITIONS; p += 1) {
+                for (String id : Tree.STORE.ids(partition(p))) {
+                    if (young(Tree.STORE.file(id))) {
+                        Tree.reachable(id, _trees, this::spill);
+                    }
+                }
+            }
+            for (String id : _staged) {
+                spill(id);
+            }
+        } finally {
+            closeSpills();
+        }
+        try {
+            for (int p = 0; p < PARTITIONS; p += 1) {
+                for (String id : chunked.manifests().ids(partition(p))) {
+                    if (marked(id) || young(chunked.manifests().file(id))) {
+                        chunked.chunks(id).forEach(this::spill);
+                    }
+                }
+            }
+        } finally {
+            closeSpills();
+            _loadedPartition = null;
+        }
+    }
+
+    /** Close the open spill files. */
+    private void closeSpills() throws IOException {
+        for (int p = 0; p < PARTITIONS; p += 1) {
+            if (_out[p] != null) {
+                _out[p].close();
+                _out[p] = null;
+            }
+        }
+    }
+
+    /** Returns true iff some commit in the graph is unmarked, and so may
+     *  be deleted by sweep. */
+    boolean unreachableCommits() {
+        return _commits.cardinality() < _graph.size();
+    }
+
+    /** Delete the unmarked loose objects of partition P that are old
+     *  enough to be collected from the commit and tree stores and from
+     *  the loose and chunked objects of BLOBS. */
+    void sweep(int p, PackedStore blobs) {
+        for (String id : Commit.STORE.ids(partition(p))) {
+            int pos = _graph.position(id);
+            if ((pos == CommitGraph.NONE || !_commits.get(pos))
+                && delete(Commit.STORE, id)) {
+                _deletedCommits = true;
+            }
+        }
+        for (String id : Tree.STORE.ids(partition(p))) {
+            if (!_trees.contains(id)) {
+                delete(Tree.STORE, id);
+            }
+        }
+        for (LooseStore store
+                 : new LooseStore[] { blobs.loose(),
+                                      blobs.chunked().manifests(),
+                                      blobs.chunked().chunks() }) {
+            for (String id : store.ids(partition(p))) {
+                if (!marked(id)) {
+                    delete(store, id);
+                }
+            }
+        }
+    }
+
+    /** Returns true iff sweep has deleted a commit. */
+    boolean deletedCommits() {
+        return _deletedCommits;
+    }
+
+    /** Returns the number of objects deleted so far. */
+    int deleted() {
+        return _deleted;
+    }
+
+    /** Returns true iff the blob named ID is marked, reading the spill
+     *  file of its partition unless that was the last one read. */
+    boolean marked(String id) {
+        String prefix = id.substring(0, LooseStore.FANOUT_CHARS);
+        if (!prefix.equals(_loadedPartition)) {
+            _loaded = new HashSet<>();
+            File f = Utils.join(_spill, prefix);
+            if (f.exists()) {
+                ByteBuffer in = ByteBuffer.wrap(Utils.readContents(f));
+                while (in.hasRemaining()) {
+                    _loaded.add(Codec.readId(in));
+                }
+            }
+            _loadedPartition = prefix;
+        }
+        return _loaded.contains(id);
+    }
+
+    /** Returns true iff the packed blob named ID should be kept, which
+     *  it should if marked, counting it as deleted otherwise.  Packed
+     *  objects have no grace period, since they keep no time of their
+     *  own. */
+    boolean keep(String id) {
+        if (marked(id)) {
+            return true;
+        }
+        _deleted += 1;
+        return false;
+    }
+
+    /** Delete the spill files. */
+    void cleanUp() {
+        List<String> names = Utils.plainFilenamesIn(_spill);
+        if (names != null) {
+            for (String name : names) {
+                Utils.join(_spill, name).delete();
+            }
+        }
+        _spill.delete();
+    }
+
+    /** Returns the name of fan-out directory P. */
+    static String partition(int p) {
+        return String.format("%02x", p);
+    }
+
+    /** Append the blob or chunk id ID to the spill file of its
+     *  partition. */
+    private void spill(String id) {
+        int p = Integer.parseInt(id.substring(0, LooseStore.FANOUT_CHARS),
+                                 16);
+        try {
+            if (_out[p] == null) {
+                _out[p] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(Utils.join(_spill, partition(p)),
+                                         true)));
+            }
+            Codec.writeId(_out[p], id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff FILE was modified within the grace period. */
+    private boolean young(File file) {
+        return file.lastModified() >= _cutoff;
+    }
+
+    /** Delete the object named ID from STORE unless it is within the
+     *  grace period, returning true iff it was deleted. */
+    private boolean delete(LooseStore store, String id) {
+        File f = store.file(id);
+        if (!young(f) && f.delete()) {
+            _deleted += 1;
+            return true;
+        }
+        return false;
+    }
+
+    /** The commit graph. */
+    private final CommitGraph _graph;
+    /** Head commits of the branches. */
+    private final Collection<String> _heads;
+    /** Blobs in the index. */
+    private final Collection<String> _staged;
+    /** Start of the grace period. */
+    private final long _cutoff;
+    /** Directory of spill files. */
+    private final File _spill;
+    /** Marked commits, by graph position. */
+    private final BitSet _commits = new BitSet();
+    /** Marked trees. */
+    private final Set<String> _trees = new HashSet<>();
+    /** Numbering of the objects in _assumed. */
+    private Bitmaps _numbering;
+    /** Objects known to be reachable, or null. */
+    private Ewah _assumed;
+    /** Open spill files, by partition. */
+    private DataOutputStream[] _out;
+    /** Marked blobs of the partition last read, or null. */
+    private Set<String> _loaded;
+    /** Name of the partition in _loaded. */
+    private String _loadedPartition;
+    /** Number of objects deleted. */
+    private int _deleted;
+    /** True iff a commit has been deleted. */
+    private boolean _deletedCommits;
+
+}
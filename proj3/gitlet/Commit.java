@@ -2,27 +2,47 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
-/** Commit class for Gitlet.
+/** Commit class for Gitlet.  Commits are stored with a hand-written
+ *  encoding (see encode) rather than Java serialization; they remain
+ *  Serializable only so that repositories from before that change can be
+ *  migrated.  A commit names the Tree of its root directory rather than
+ *  listing every file, so its size does not grow with the snapshot.
  *  @author Marcus Cheung
  */
 public class Commit implements Serializable {
+    /** Serial version of commits written before it was declared. */
+    private static final long serialVersionUID = 3258549700539261523L;
     /** msg. */
     private String _msg;
     /** date. */
     private Date _time;
-    /** files. */
+    /** files, or null if not yet read from the tree. */
     private LinkedHashMap<String, String> _files;
+    /** id of the root tree. */
+    private String _tree;
     /** id. */
     private String _id;
     /** p1. */
     private String _parent1;
     /** p2. */
     private String _parent2 = null;
+    /** encoded file table not yet decoded into _files, or null. */
+    private transient ByteBuffer _table;
+    /** flag marking an encoded commit with a first parent. */
+    private static final int HAS_P1 = 1;
+    /** flag marking an encoded commit with a second parent. */
+    private static final int HAS_P2 = 2;
+    /** flag marking an encoded commit that names its root tree rather
+     * than holding a file table, as those of format 8 and earlier do. */
+    private static final int HAS_TREE = 4;
 
     /** CWD. */
     static final File CWD = new File(System.getProperty("user.dir"));
@@ -30,69 +50,146 @@ public class Commit implements Serializable {
     static final File GITLET = Utils.join(CWD, ".gitlet");
     /** commits. */
     static final File COMMITS = Utils.join(GITLET, "commits");
-    /** add. */
-    static final File ADD = Utils.join(GITLET, "add");
-    /** rm. */
-    static final File RM = Utils.join(GITLET, "rm");
-    /** formatter. */
-    static final SimpleDateFormat F =
-            new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
+    /** commit store. */
+    static final LooseStore STORE = new LooseStore(COMMITS);
+    /** number of decoded commits kept in memory. */
+    static final int CACHE_SIZE = 4096;
+    /** decoded commits. */
+    static final ObjectCache<Commit> CACHE = new ObjectCache<>(CACHE_SIZE);
+    /** formatter, which unlike SimpleDateFormat may be shared between
+     * threads. */
+    static final DateTimeFormatter F =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
 
 
     /** Commit constructor.
      * @param msg msg
-     * @param p1 p1
+     * @param p1 p1, or null for the initial commit
+     * @param files files
      * */
-    @SuppressWarnings("unchecked")
-    public Commit(String msg, String p1) {
-        Commit parent = null;
-        if (p1 != null) {
-            parent = Utils.readObject(Utils.join(COMMITS, p1), Commit.class);
-        }
+    public Commit(String msg, String p1, Map<String, String> files) {
         _msg  = msg;
         _parent1 = p1;
-        if (parent == null) {
-            _time = new Date(0);
-            _files = new LinkedHashMap<>();
-        } else {
-            _time = new Date();
-            _files = (LinkedHashMap<String, String>) parent._files.clone();
-            LinkedHashMap<String, String> add =
-                    Utils.readObject(ADD, LinkedHashMap.class);
-            ArrayList<String> rm = Utils.readObject(RM, ArrayList.class);
-            if (add.isEmpty() && rm.isEmpty()) {
-                System.out.println("No changes added to the commit.");
-                System.exit(0);
-            }
-            _files.putAll(add);
-            Utils.writeObject(ADD, new LinkedHashMap<String, String>());
-
-            for (String name : rm)  {
-                _files.remove(name);
-            }
-            Utils.writeObject(RM, new ArrayList<String>());
-
-        }
-        _id = Utils.sha1(_files.toString(),
+        _time = p1 == null ? new Date(0) : new Date();
+        _files = new LinkedHashMap<>(new TreeMap<>(files));
+        _tree = Tree.write(_files);
+        _id = Utils.sha1(_tree,
                 Utils.serialize(_parent1), _msg, _time.toString());
     }
     /** Commit constructor.
      * @param msg msg
      * @param p1 p1
      * @param p2 p2
+     * @param files files
      * */
-    public Commit(String msg, String p1, String p2) {
-        this(msg, p1);
+    public Commit(String msg, String p1, String p2,
+                  Map<String, String> files) {
+        this(msg, p1, files);
         _parent2 = p2;
     }
 
-    /** gets files.
-     * @return files
+    /** decoding constructor. */
+    private Commit() {
+    }
+
+    /** reads a commit.
+     * @param id id
+     * @return commit
+     * */
+    static Commit read(String id) {
+        return CACHE.get(id, k -> decode(STORE.read(k)));
+    }
+
+    /** saves this commit under its id. */
+    void save() {
+        STORE.write(_id, encode());
+        CACHE.put(_id, this);
+    }
+
+    /** encodes this commit as
+     *     id(20) flags(1) [parent1(20)] [parent2(20)] time(8) message
+     *     tree(20)
+     * after the Codec header.  Commits of format 8 and earlier end
+     * instead with a file table, count(4) { name id(20) }*, which decode
+     * still reads.
+     * @return bytes
+     * */
+    byte[] encode() {
+        String tree = getTree();
+        return Codec.encode(Codec.COMMIT, out -> {
+            Codec.writeId(out, _id);
+            out.writeByte((_parent1 != null ? HAS_P1 : 0)
+                    | (_parent2 != null ? HAS_P2 : 0) | HAS_TREE);
+            if (_parent1 != null) {
+                Codec.writeId(out, _parent1);
+            }
+            if (_parent2 != null) {
+                Codec.writeId(out, _parent2);
+            }
+            out.writeLong(_time.getTime());
+            Codec.writeString(out, _msg);
+            Codec.writeId(out, tree);
+        });
+    }
+
+    /** decodes a commit.  The file table of an old commit is decoded
+     * by the first call to getFiles.
+     * @param data encoded commit
+     * @return commit
+     * */
+    static Commit decode(byte[] data) {
+        ByteBuffer in = Codec.open(data, Codec.COMMIT);
+        Commit c = new Commit();
+        c._id = Codec.readId(in);
+        int flags = in.get();
+        if ((flags & HAS_P1) != 0) {
+            c._parent1 = Codec.readId(in);
+        }
+        if ((flags & HAS_P2) != 0) {
+            c._parent2 = Codec.readId(in);
+        }
+        c._time = new Date(in.getLong());
+        c._msg = Codec.readString(in);
+        if ((flags & HAS_TREE) != 0) {
+            c._tree = Codec.readId(in);
+        } else {
+            c._table = in;
+        }
+        return c;
+    }
+
+    /** gets files, reading the trees of this commit on first use.
+     * @return map from paths to blob ids, in order of path
      * */
     public LinkedHashMap<String, String> getFiles() {
+        if (_files == null && _tree != null) {
+            LinkedHashMap<String, String> files = new LinkedHashMap<>();
+            Tree.flatten(_tree, "", files);
+            _files = files;
+        } else if (_files == null) {
+            ByteBuffer in = _table;
+            _files = new LinkedHashMap<>();
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                String name = Codec.readString(in);
+                _files.put(name, Codec.readId(in));
+            }
+            _table = null;
+        }
         return _files;
     }
 
+    /** gets root tree, storing the trees of an old commit that has
+     * none.
+     * @return tree id
+     * */
+    public String getTree() {
+        if (_tree == null) {
+            _tree = Tree.write(getFiles());
+        }
+        return _tree;
+    }
+
     /** gets id.
      * @return id
      * */
@@ -130,13 +227,13 @@ public class Commit implements Serializable {
      * @return commit
      * */
     public Commit getParent() {
-        return Utils.readObject(Utils.join(COMMITS, _parent1), Commit.class);
+        return read(_parent1);
     }
     /** gets p2.
      * @return commit
      * */
     public Commit getSecond() {
-        return Utils.readObject(Utils.join(COMMITS, _parent2), Commit.class);
+        return read(_parent2);
     }
 
     @Override
@@ -145,7 +242,7 @@ public class Commit implements Serializable {
      * */
     public String toString() {
         return "===\ncommit " + _id
-               + "\nDate: " + F.format(_time)
+               + "\nDate: " + F.format(_time.toInstant())
                + "\n" + _msg;
     }
 
@@ -156,4 +253,11 @@ public class Commit implements Serializable {
         return _msg;
     }
 
+    /** gets time.
+     * @return milliseconds since the epoch
+     * */
+    public long getTime() {
+        return _time.getTime();
+    }
+
 }
@@ -0,0 +1,379 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+
+/** The commit graph: the ancestry of every commit, kept in one file of
+ *  fixed-width records so that history can be walked without opening any
+ *  commit object.  Commits are numbered by their position in the file,
+ *  and every commit follows its parents.
+ *
+ *  The file holds MAGIC and VERSION, then one record per commit:
+ *      id(20) parent1(4) parent2(4) generation(4) time(8)
+ *  where the parents are positions, or NONE.  The generation of a commit
+ *  is one more than the largest generation of its parents, with root
+ *  commits at generation 1, so a commit's generation is always greater
+ *  than that of any of its ancestors.
+ *  @author Marcus Cheung
+ */
+class CommitGraph {
+
+    /** First word of a commit-graph file. */
+    static final int MAGIC = 0x474c4347;
+    /** Format version of commit-graph files. */
+    static final int VERSION = 1;
+    /** Position standing for a missing parent. */
+    static final int NONE = -1;
+    /** Size of the file header. */
+    private static final int HEADER = 8;
+    /** Size of one record. */
+    private static final int RECORD = Utils.UID_BYTES + 20;
+    /** Offsets of the fields of a record. */
+    private static final int P1 = Utils.UID_BYTES, P2 = P1 + 4,
+        GEN = P2 + 4, TIME = GEN + 4;
+    /** Marks used while painting ancestors in mergeBases. */
+    private static final byte FROM_A = 1, FROM_B = 2, STALE = 4,
+        RESULT = 8;
+
+    /** The commit graph stored in FILE, whose commits are looked up by
+     *  id in the index stored in INDEX. */
+    CommitGraph(File file, File index) {
+        _file = file;
+        _ids = new IdIndex(index, this);
+    }
+
+    /** Create FILE holding an empty commit graph and INDEX holding its
+     *  empty id index. */
+    static void create(File file, File index) {
+        Utils.writeContents(file, ByteBuffer.allocate(HEADER)
+                            .putInt(MAGIC).putInt(VERSION).array());
+        IdIndex.create(index);
+    }
+
+    /** Remove every commit from the graph and its id index. */
+    void clear() {
+        Utils.writeContents(_file, ByteBuffer.allocate(HEADER)
+                            .putInt(MAGIC).putInt(VERSION).array());
+        _buffer = null;
+        _ids.clear();
+    }
+
+    /** Returns the index of my commits by id. */
+    IdIndex ids() {
+        return _ids;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return (buffer().limit() - HEADER) / RECORD;
+    }
+
+    /** Returns the position of the commit named ID, or NONE if it is not
+     *  in the graph. */
+    int position(String id) {
+        return _ids.position(id);
+    }
+
+    /** Returns the position at or after FROM of the commit whose raw id
+     *  is KEY, or NONE.  Recent commits are found soonest. */
+    int find(byte[] key, int from) {
+        ByteBuffer buf = buffer();
+        for (int pos = size() - 1; pos >= from; pos -= 1) {
+            int off = offset(pos);
+            int k;
+            for (k = 0; k < key.length && buf.get(off + k) == key[k];
+                 k += 1) {
+                continue;
+            }
+            if (k == key.length) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the id of the commit at POS. */
+    String id(int pos) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        buffer().get(offset(pos), id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or
+     *  NONE. */
+    int parent1(int pos) {
+        return buffer().getInt(offset(pos) + P1);
+    }
+
+    /** Returns the position of the second parent of the commit at POS, or
+     *  NONE. */
+    int parent2(int pos) {
+        return buffer().getInt(offset(pos) + P2);
+    }
+
+    /** Returns the generation of the commit at POS. */
+    int generation(int pos) {
+        return buffer().getInt(offset(pos) + GEN);
+    }
+
+    /** Returns the time of the commit at POS. */
+    long time(int pos) {
+        return buffer().getLong(offset(pos) + TIME);
+    }
+
+    /** Returns the positions of the commit at POS and of its first
+     *  parent, its first parent's first parent, and so on, computed as
+     *  they are needed. */
+    PrimitiveIterator.OfInt firstParents(int pos) {
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return _next != NONE;
+            }
+
+            @Override
+            public int nextInt() {
+                if (_next == NONE) {
+                    throw new NoSuchElementException();
+                }
+                int result = _next;
+                _next = parent1(result);
+                return result;
+            }
+
+            /** Position of the next commit, or NONE. */
+            private int _next = pos;
+        };
+    }
+
+    /** Add COMMIT, whose parents must already be present. */
+    void append(Commit commit) {
+        append(List.of(commit));
+    }
+
+    /** Add COMMITS, each of whose parents must either be present or come
+     *  earlier in COMMITS. */
+    void append(List<Commit> commits) {
+        HashMap<String, int[]> added = new HashMap<>();
+        int next = size();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_file, true)))) {
+            for (Commit c : commits) {
+                int[] p1 = locate(c.getParentID(), added);
+                int[] p2 = locate(c.getSecondID(), added);
+                int gen = 1 + Math.max(p1[1], p2[1]);
+                Codec.writeId(out, c.getID());
+                out.writeInt(p1[0]);
+                out.writeInt(p2[0]);
+                out.writeInt(gen);
+                out.writeLong(c.getTime());
+                added.put(c.getID(), new int[] { next, gen });
+                next += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _buffer = null;
+        _ids.update();
+    }
+
+    /** Discard any partial record left at the end of my file by an
+     *  interrupted append. */
+    void repair() {
+        long whole = offset(size());
+        if (_file.length() > whole) {
+            Journal.truncate(_file, whole);
+        }
+        _buffer = null;
+    }
+
+    /** Returns the position and generation of the commit named ID, looking
+     *  first in ADDED, which maps ids not yet in the file to that pair.
+     *  A null ID gives position NONE and generation 0. */
+    private int[] locate(String id, HashMap<String, int[]> added) {
+        if (id == null) {
+            return new int[] { NONE, 0 };
+        }
+        int[] result = added.get(id);
+        if (result != null) {
+            return result;
+        }
+        int pos = position(id);
+        if (pos == NONE) {
+            throw new IllegalArgumentException("parent " + id
+                                               + " not in commit graph");
+        }
+        return new int[] { pos, generation(pos) };
+    }
+
+    /** Returns the best common ancestors of the commits at A and B: those
+     *  common ancestors that are not ancestors of any other common
+     *  ancestor.  Commits are visited in decreasing order of generation,
+     *  so every descendant of a commit is seen before it and the walk can
+     *  stop as soon as only commits below a known common ancestor
+     *  remain. */
+    List<Integer> mergeBases(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        byte[] marks = new byte[size()];
+        int[] queued = new int[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (x, y) -> generation(x) != generation(y)
+                ? Integer.compare(generation(y), generation(x))
+                : Integer.compare(y, x));
+        int unfinished = push(a, FROM_A, queue, queued, marks)
+            + push(b, FROM_B, queue, queued, marks);
+        while (unfinished > 0) {
+            int c = queue.poll();
+            queued[c] -= 1;
+            if ((marks[c] & STALE) == 0) {
+                unfinished -= 1;
+            }
+            int flags = marks[c] & (FROM_A | FROM_B | STALE);
+            if (flags == (FROM_A | FROM_B)) {
+                if ((marks[c] & RESULT) == 0) {
+                    marks[c] |= RESULT;
+                    result.add(c);
+                }
+                flags |= STALE;
+            }
+            for (int p : new int[] { parent1(c), parent2(c) }) {
+                if (p != NONE && (marks[p] & flags) != flags) {
+                    unfinished += push(p, flags, queue, queued, marks);
+                }
+            }
+        }
+        List<Integer> best = new ArrayList<>();
+        for (int r : result) {
+            boolean redundant = false;
+            for (int other : result) {
+                if (other != r && reaches(other, r)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                best.add(r);
+            }
+        }
+        return best;
+    }
+
+    /** Add FLAGS to the MARKS of the commit at C and add it to QUEUE,
+     *  where QUEUED counts the entries of each commit, and return the
+     *  change in the number of entries not yet known to lie below a
+     *  common ancestor: the commit's entries already queued stop counting
+     *  if it is newly marked STALE. */
+    private static int push(int c, int flags, PriorityQueue<Integer> queue,
+                            int[] queued, byte[] marks) {
+        int change = 0;
+        if ((marks[c] & STALE) == 0 && (flags & STALE) != 0) {
+            change -= queued[c];
+        }
+        marks[c] |= flags;
+        queue.add(c);
+        queued[c] += 1;
+        if ((marks[c] & STALE) == 0) {
+            change += 1;
+        }
+        return change;
+    }
+
+    /** Returns true iff the commit at TO is the commit at FROM or one of
+     *  its ancestors.  Commits with generations below TO's are not
+     *  searched. */
+    boolean reaches(int from, int to) {
+        int floor = generation(to);
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        HashSet<Integer> seen = new HashSet<>();
+        work.push(from);
+        while (!work.isEmpty()) {
+            int c = work.pop();
+            if (c == to) {
+                return true;
+            }
+            if (c == NONE || generation(c) <= floor
+                || !seen.add(c)) {
+                continue;
+            }
+            work.push(parent1(c));
+            work.push(parent2(c));
+        }
+        return false;
+    }
+
+    /** Returns whichever of TARGETS, a nonempty collection of ancestors of
+     *  the commit at FROM, is fewest parent links away from it. */
+    int nearest(int from, Collection<Integer> targets) {
+        int floor = Integer.MAX_VALUE;
+        for (int t : targets) {
+            floor = Math.min(floor, generation(t));
+        }
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        HashSet<Integer> seen = new HashSet<>();
+        queue.add(from);
+        seen.add(from);
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            if (targets.contains(c)) {
+                return c;
+            }
+            for (int p : new int[] { parent1(c), parent2(c) }) {
+                if (p != NONE && generation(p) >= floor
+                    && seen.add(p)) {
+                    queue.add(p);
+                }
+            }
+        }
+        throw new IllegalArgumentException("no path to merge base");
+    }
+
+    /** Returns the offset of the record at POS. */
+    private static int offset(int pos) {
+        return HEADER + pos * RECORD;
+    }
+
+    /** Returns the contents of my file, mapping it on first use. */
+    private ByteBuffer buffer() {
+        if (_buffer == null) {
+            try (RandomAccessFile f = new RandomAccessFile(_file, "r")) {
+                _buffer = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                             0, f.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_buffer.limit() < HEADER || _buffer.getInt(0) != MAGIC
+                || _buffer.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad commit graph");
+            }
+        }
+        return _buffer;
+    }
+
+    /** File holding the graph. */
+    private final File _file;
+    /** Index of my commits by id. */
+    private final IdIndex _ids;
+    /** Contents of _file, or null if not yet mapped. */
+    private ByteBuffer _buffer;
+
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of CommitGraph and of its IdIndex.
+ *  @author Marcus Cheung
+ */
+public class CommitGraphTest {
+
+    /** Make an empty graph in a new temporary directory. */
+    @Before
+    public void setUp() throws IOException {
+        File dir = Files.createTempDirectory("graph").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "graph"), index = new File(dir, "ids");
+        file.deleteOnExit();
+        index.deleteOnExit();
+        CommitGraph.create(file, index);
+        _graph = new CommitGraph(file, index);
+        _parents = new ArrayList<>();
+    }
+
+    /** Returns the id of commit N. */
+    static String id(int n) {
+        return Utils.sha1("commit " + n);
+    }
+
+    /** Append commit number size() with parents at positions P1 and P2
+     *  (either may be CommitGraph.NONE). */
+    private void add(int p1, int p2) {
+        int n = _parents.size();
+        _parents.add(new int[] { p1, p2 });
+        _graph.append(commit(n, p1 == CommitGraph.NONE ? null : id(p1),
+                             p2 == CommitGraph.NONE ? null : id(p2)));
+    }
+
+    /** Returns commit N, with parents P1 and P2, which may be null. */
+    static Commit commit(int n, String p1, String p2) {
+        /* Laid out as by Commit.encode, with a tree but no files. */
+        return Commit.decode(Codec.encode(Codec.COMMIT, out -> {
+            Codec.writeId(out, id(n));
+            out.writeByte((p1 != null ? 1 : 0) | (p2 != null ? 2 : 0) | 4);
+            if (p1 != null) {
+                Codec.writeId(out, p1);
+            }
+            if (p2 != null) {
+                Codec.writeId(out, p2);
+            }
+            out.writeLong(n);
+            Codec.writeString(out, "commit " + n);
+            Codec.writeId(out, Utils.sha1("tree"));
+        }));
+    }
+
+    /** Returns the positions of C and all its ancestors. */
+    private BitSet ancestors(int c) {
+        BitSet result = new BitSet();
+        ArrayList<Integer> work = new ArrayList<>(List.of(c));
+        while (!work.isEmpty()) {
+            int k = work.remove(work.size() - 1);
+            if (k != CommitGraph.NONE && !result.get(k)) {
+                result.set(k);
+                work.add(_parents.get(k)[0]);
+                work.add(_parents.get(k)[1]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the best common ancestors of A and B, by definition. */
+    private TreeSet<Integer> bases(int a, int b) {
+        BitSet common = ancestors(a);
+        common.and(ancestors(b));
+        TreeSet<Integer> result = new TreeSet<>();
+        common.stream().forEach(result::add);
+        common.stream().forEach(c -> {
+            BitSet below = ancestors(c);
+            below.clear(c);
+            below.stream().forEach(result::remove);
+        });
+        return result;
+    }
+
+    @Test
+    public void appendAndRead() {
+        add(CommitGraph.NONE, CommitGraph.NONE);
+        add(0, CommitGraph.NONE);
+        add(0, CommitGraph.NONE);
+        add(1, 2);
+        assertEquals(4, _graph.size());
+        assertEquals(3, _graph.position(id(3)));
+        assertEquals(id(2), _graph.id(2));
+        assertEquals(1, _graph.parent1(3));
+        assertEquals(2, _graph.parent2(3));
+        assertEquals(CommitGraph.NONE, _graph.parent1(0));
+        assertEquals(1, _graph.generation(0));
+        assertEquals(3, _graph.generation(3));
+        assertEquals(CommitGraph.NONE, _graph.position(id(4)));
+    }
+
+    @Test
+    public void crissCross() {
+        add(CommitGraph.NONE, CommitGraph.NONE);
+        add(0, CommitGraph.NONE);
+        add(0, CommitGraph.NONE);
+        add(1, 2);
+        add(2, 1);
+        assertEquals(new TreeSet<>(List.of(1, 2)),
+                     new TreeSet<>(_graph.mergeBases(3, 4)));
+        assertEquals(List.of(1), _graph.mergeBases(1, 3));
+        assertEquals(List.of(3), _graph.mergeBases(3, 3));
+        assertTrue(_graph.reaches(3, 0));
+        assertFalse(_graph.reaches(3, 4));
+        assertEquals(1, _graph.nearest(3, List.of(0, 1)));
+    }
+
+    @Test
+    public void randomMergeBases() {
+        Random random = new Random(61);
+        add(CommitGraph.NONE, CommitGraph.NONE);
+        for (int n = 1; n < 300; n += 1) {
+            int p1 = n - 1 - random.nextInt(Math.min(n, 8));
+            int p2 = random.nextInt(4) == 0 ? random.nextInt(n)
+                : CommitGraph.NONE;
+            add(p1, p2 == p1 ? CommitGraph.NONE : p2);
+        }
+        for (int k = 0; k < 500; k += 1) {
+            int a = random.nextInt(300), b = random.nextInt(300);
+            assertEquals("bases of " + a + " and " + b, bases(a, b),
+                         new TreeSet<>(_graph.mergeBases(a, b)));
+        }
+    }
+
+    @Test
+    public void idIndex() {
+        add(CommitGraph.NONE, CommitGraph.NONE);
+        int n = 3 * IdIndex.TAIL_LIMIT;
+        for (int k = 1; k < n; k += 1) {
+            add(k - 1, CommitGraph.NONE);
+        }
+        for (int k = 0; k < n; k += 1) {
+            assertEquals(k, _graph.ids().position(id(k)));
+            assertEquals(List.of(id(k)),
+                         _graph.ids().resolve(id(k).substring(0, 10)));
+        }
+        assertEquals(CommitGraph.NONE, _graph.ids().position(id(n)));
+        assertEquals(List.of(), _graph.ids().resolve("abc"));
+        _graph.ids().rebuild();
+        assertEquals(n - 1, _graph.ids().position(id(n - 1)));
+    }
+
+    /** The graph under test. */
+    private CommitGraph _graph;
+    /** Parents of each commit added, by position. */
+    private List<int[]> _parents;
+
+}
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+
+/** A server, started by "java gitlet.Main daemon" at the top of a
+ *  repository, that performs the commands sent to it by Client over the
+ *  Unix domain socket Client.SOCKET, one at a time, in a single JVM.  Commands
+ *  thus run with classes loaded, code compiled, and the refs, commit
+ *  graph, message index, packs and caches of decoded commits and trees
+ *  already in memory from the commands before them.
+ *
+ *  A request is
+ *      argc(4) arg* cwd
+ *  with strings written as by Codec.  The reply is a series of frames,
+ *      OUTPUT length(4) bytes   or   ERROR length(4) bytes
+ *  holding what the command wrote to standard output and error, ended by
+ *      EXIT code(4)
+ *  A request from a directory other than the daemon's is answered by
+ *  REFUSED alone, and the client then runs the command itself.
+ *
+ *  Other processes may still change the repository.  Before each
+ *  command, the daemon drops everything it read from the .gitlet
+ *  directory if a WatchService has reported a change there, or if the
+ *  sizes or times of the files that every change of refs, index or packs
+ *  touches differ from those recorded after its own last command.  The
+ *  second check covers events not yet delivered, since watch events
+ *  arrive asynchronously; events arriving during the daemon's own
+ *  command are taken to be its own.  Decoded commits and trees are
+ *  named by their contents and are never dropped.
+ *  @author Marcus Cheung
+ */
+class Daemon {
+
+    /** Kind of a frame of standard output. */
+    static final byte OUTPUT = 1;
+    /** Kind of a frame of standard error. */
+    static final byte ERROR = 2;
+    /** Kind of the final frame, holding the exit code. */
+    static final byte EXIT = 3;
+    /** Kind of the reply to a request from another directory. */
+    static final byte REFUSED = 4;
+    /** Size of the buffers of output frames. */
+    static final int FRAME_SIZE = 1 << 16;
+    /** Files whose size and time are checked before each command. */
+    static final File[] STAMPED = {
+        Repo.JOURNAL, Repo.JOURNAL_APPLIED, Repo.INDEX, Repo.HEAD,
+        Repo.PACKED_REFS, Repo.HEADS, Repo.PACKS, Repo.COMMIT_GRAPH,
+        Repo.FORMAT, Bitmaps.INDEX,
+    };
+    /** Directories watched for changes. */
+    static final File[] WATCHED = {
+        Repo.GITLET, Repo.HEADS, Repo.PACKS, Repo.MESSAGE_INDEX,
+    };
+
+    /** Serve requests until asked to stop. */
+    void serve() throws IOException {
+        if (Client.running()) {
+            throw new GitletException("A daemon is already running.");
+        }
+        Files.deleteIfExists(Client.SOCKET);
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             WatchService watcher =
+                 FileSystems.getDefault().newWatchService()) {
+            server.bind(UnixDomainSocketAddress.of(Client.SOCKET));
+            _watcher = watcher;
+            watch();
+            _stamp = stamp();
+            while (!_stopped) {
+                try (SocketChannel channel = server.accept()) {
+                    serve(channel);
+                } catch (IOException excp) {
+                    System.err.println("gitlet daemon: " + excp.getMessage());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(Client.SOCKET);
+        }
+    }
+
+    /** Perform the request read from CHANNEL and send back its output. */
+    private void serve(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(channel), FRAME_SIZE));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readString(in);
+        }
+        File cwd = new File(readString(in));
+        if (!cwd.getCanonicalFile().equals(Repo.CWD.getCanonicalFile())) {
+            out.writeByte(REFUSED);
+            out.flush();
+            return;
+        }
+        int code;
+        if (args.length == 2 && args[0].equals("daemon")
+            && args[1].equals("--stop")) {
+            _stopped = true;
+            code = 0;
+        } else {
+            if (changed()) {
+                invalidate();
+            }
+            code = perform(args, out);
+            drain();
+            _stamp = stamp();
+        }
+        out.writeByte(EXIT);
+        out.writeInt(code);
+        out.flush();
+    }
+
+    /** Perform the command ARGS, sending its output to OUT as frames, and
+     *  return its exit code. */
+    private int perform(String[] args, DataOutputStream out) {
+        PrintStream stdout = System.out, stderr = System.err;
+        PrintStream output = frames(out, OUTPUT), errors = frames(out, ERROR);
+        System.setOut(output);
+        System.setErr(errors);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                throw new GitletException("A daemon is already running.");
+            }
+            if (_repo == null) {
+                _repo = new Repo();
+            }
+            Main.run(_repo, args);
+            return 0;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            _repo = null;
+            return 0;
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace();
+            _repo = null;
+            return 1;
+        } finally {
+            output.flush();
+            errors.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /** Returns a print stream writing frames of kind KIND to OUT. */
+    private static PrintStream frames(DataOutputStream out, byte kind) {
+        return new PrintStream(new BufferedOutputStream(new Frames(out, kind),
+                                                        FRAME_SIZE),
+                               false, StandardCharsets.UTF_8);
+    }
+
+    /** Returns true iff the repository may have been changed by another
+     *  process since my last command. */
+    private boolean changed() {
+        boolean result = drain();
+        return !Arrays.equals(_stamp, stamp()) || result;
+    }
+
+    /** Forget everything read from the repository, other than decoded
+     *  objects. */
+    private void invalidate() throws IOException {
+        _repo = null;
+        Repo.BLOB_STORE.refresh();
+        watch();
+    }
+
+    /** Watch each of WATCHED that exists, so that directories created
+     *  since the last call are also watched. */
+    private void watch() throws IOException {
+        for (File dir : WATCHED) {
+            if (dir.isDirectory()) {
+                dir.toPath().register(_watcher,
+                                      StandardWatchEventKinds.ENTRY_CREATE,
+                                      StandardWatchEventKinds.ENTRY_DELETE,
+                                      StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+    }
+
+    /** Discard pending watch events, returning true iff there were any. */
+    private boolean drain() {
+        boolean result = false;
+        for (WatchKey key = _watcher.poll(); key != null;
+             key = _watcher.poll()) {
+            result |= !key.pollEvents().isEmpty();
+            key.reset();
+        }
+        return result;
+    }
+
+    /** Returns the sizes and modification times of STAMPED. */
+    private static long[] stamp() {
+        long[] result = new long[2 * STAMPED.length];
+        for (int i = 0; i < STAMPED.length; i += 1) {
+            result[2 * i] = STAMPED[i].length();
+            result[2 * i + 1] = STAMPED[i].lastModified();
+        }
+        return result;
+    }
+
+    /** Returns the next string in IN, as written by Codec.writeString. */
+    static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A stream writing its bytes to a reply as frames of one kind. */
+    private static class Frames extends OutputStream {
+        /** A stream writing frames of kind KIND to OUT. */
+        Frames(DataOutputStream out, byte kind) {
+            _out = out;
+            _kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeByte(_kind);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        /** Reply to which frames are written. */
+        private final DataOutputStream _out;
+        /** Kind of my frames. */
+        private final byte _kind;
+    }
+
+    /** Repository state kept between commands, or null if it must be
+     *  read afresh. */
+    private Repo _repo;
+    /** Watch service for WATCHED. */
+    private WatchService _watcher;
+    /** Sizes and times of STAMPED after my last command. */
+    private long[] _stamp;
+    /** True once asked to stop. */
+    private boolean _stopped;
+
+}
@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/** Binary deltas between byte arrays.  A delta describes a target as a
+ *  sequence of instructions, each either copying a range of a base array
+ *  or inserting literal bytes:
+ *      baseLength(4) targetLength(4) { COPY offset(4) length(4)
+ *                                    | INSERT length(4) bytes }*
+ *  @author Marcus Cheung
+ */
+class Delta {
+
+    /** Instruction copying a range of the base. */
+    private static final byte COPY = 1;
+    /** Instruction inserting literal bytes. */
+    private static final byte INSERT = 0;
+    /** Size of the blocks of the base that are indexed for matching.
+     *  Matches shorter than this are emitted as literals. */
+    private static final int BLOCK = 16;
+
+    /** Returns a delta that reconstructs TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> index = new HashMap<>();
+        for (int j = 0; j + BLOCK <= base.length; j += BLOCK) {
+            index.putIfAbsent(hash(base, j), j);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(base.length);
+            out.writeInt(target.length);
+            int literal = 0;
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer j = index.get(hash(target, i));
+                if (j == null || !matches(base, j, target, i, BLOCK)) {
+                    i += 1;
+                    continue;
+                }
+                int len = BLOCK;
+                while (j + len < base.length && i + len < target.length
+                       && base[j + len] == target[i + len]) {
+                    len += 1;
+                }
+                insert(out, target, literal, i);
+                out.writeByte(COPY);
+                out.writeInt(j);
+                out.writeInt(len);
+                i += len;
+                literal = i;
+            }
+            insert(out, target, literal, target.length);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(delta));
+            if (in.readInt() != base.length) {
+                throw new IllegalArgumentException("delta base mismatch");
+            }
+            byte[] result = new byte[in.readInt()];
+            int k = 0;
+            while (k < result.length) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    int off = in.readInt();
+                    int len = in.readInt();
+                    System.arraycopy(base, off, result, k, len);
+                    k += len;
+                } else {
+                    int len = in.readInt();
+                    in.readFully(result, k, len);
+                    k += len;
+                }
+            }
+            return result;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+    }
+
+    /** Write an instruction inserting TARGET[START .. END-1] to OUT, if
+     *  that range is non-empty. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int start, int end) throws IOException {
+        if (start < end) {
+            out.writeByte(INSERT);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at K. */
+    private static int hash(byte[] data, int k) {
+        int h = 0;
+        for (int i = k; i < k + BLOCK; i += 1) {
+            h = h * 31 + data[i];
+        }
+        return h;
+    }
+
+    /** Returns true iff the LEN bytes of A at I equal those of B at J. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j,
+                                   int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Delta.
+ *  @author Marcus Cheung
+ */
+public class DeltaTest {
+
+    /** Returns the bytes of S. */
+    static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns N random bytes from RANDOM. */
+    static byte[] random(Random random, int n) {
+        byte[] result = new byte[n];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /** Check that the delta from BASE to TARGET rebuilds TARGET. */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    @Test
+    public void emptyTexts() {
+        roundTrip(new byte[0], new byte[0]);
+        roundTrip(new byte[0], bytes("new"));
+        roundTrip(bytes("old"), new byte[0]);
+    }
+
+    @Test
+    public void smallEdit() {
+        byte[] base = random(new Random(1), 1 << 16);
+        byte[] target = Arrays.copyOf(base, base.length + 10);
+        System.arraycopy(bytes("inserted"), 0, target, 1000, 8);
+        target[base.length + 3] = 7;
+        byte[] delta = roundTrip(base, target);
+        assertTrue("delta too long: " + delta.length,
+                   delta.length < base.length / 16);
+    }
+
+    @Test
+    public void unrelatedTexts() {
+        Random random = new Random(2);
+        for (int k = 0; k < 20; k += 1) {
+            roundTrip(random(random, random.nextInt(5000)),
+                      random(random, random.nextInt(5000)));
+        }
+    }
+
+    @Test
+    public void movedBlocks() {
+        Random random = new Random(3);
+        byte[] a = random(random, 3000), b = random(random, 3000);
+        byte[] base = new byte[6000], target = new byte[6000];
+        System.arraycopy(a, 0, base, 0, 3000);
+        System.arraycopy(b, 0, base, 3000, 3000);
+        System.arraycopy(b, 0, target, 0, 3000);
+        System.arraycopy(a, 0, target, 3000, 3000);
+        assertTrue(roundTrip(base, target).length < 1000);
+    }
+
+}
@@ -0,0 +1,444 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-by-line comparison of texts.  Texts are split into lines, each
+ *  including its terminating newline, and every distinct line is given
+ *  a small integer id so that lines are compared as ints.  Pairs of
+ *  sequences of ids are compared with Myers' O(ND) algorithm in its
+ *  linear-space form, which finds the middle snake of an edit script by
+ *  searching forward from the start and backward from the end at once,
+ *  and recurses on either side of it.
+ *
+ *  Very different inputs, for which D is large, would take O(N^2) time,
+ *  so once the search for a middle snake has cost more than about the
+ *  square root of N steps it gives up and splits at the furthest point
+ *  either search reached.  The script is then no longer minimal, but is
+ *  still a correct script, as in GNU diff and git.
+ *
+ *  Edit scripts are written as unified diffs, with CONTEXT lines of
+ *  context around each change.  Only files of at most MAX_TEXT bytes are
+ *  read into memory to be compared.
+ *  @author Marcus Cheung
+ */
+class Diff {
+
+    /** Least number of steps a middle snake search may take before
+     *  settling for an approximate split. */
+    static final int MIN_COST = 256;
+    /** Number of leading bytes examined for NULs. */
+    static final int BINARY_CHECK = 8000;
+    /** Largest file compared line by line, so that the memory used by a
+     *  comparison stays bounded. */
+    static final int MAX_TEXT = 1 << 24;
+    /** Lines of context around each change in a unified diff. */
+    static final int CONTEXT = 3;
+    /** Written after a last line that has no newline. */
+    static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** A version of a file, opened only if it must be read. */
+    interface Version {
+        /** Returns a stream of my contents. */
+        InputStream open() throws IOException;
+    }
+
+    /** Write to OUT a unified diff of the file PATH from version A to
+     *  version B, either of which may be null if the file is absent.
+     *  Files that look binary, or are larger than MAX_TEXT bytes, are
+     *  only reported as different. */
+    static void writeUnified(OutputStream out, String path,
+                             Version a, Version b) throws IOException {
+        byte[] x = a == null ? new byte[0] : readAtMost(a, MAX_TEXT);
+        byte[] y = b == null ? new byte[0] : readAtMost(b, MAX_TEXT);
+        print(out, "diff --git a/" + path + " b/" + path + "\n");
+        if (a == null) {
+            print(out, "new file\n");
+        } else if (b == null) {
+            print(out, "deleted file\n");
+        }
+        String from = a == null ? "/dev/null" : "a/" + path;
+        String to = b == null ? "/dev/null" : "b/" + path;
+        if (x == null || y == null) {
+            print(out, "Files " + from + " and " + to
+                  + " differ (too large to compare)\n");
+            return;
+        } else if (binary(x) || binary(y)) {
+            print(out, "Binary files " + from + " and " + to + " differ\n");
+            return;
+        }
+        print(out, "--- " + from + "\n+++ " + to + "\n");
+        int[][] starts = { lineStarts(x), lineStarts(y) };
+        int[][] ids = lineIds(new byte[][] { x, y }, starts);
+        List<int[]> changes = changes(match(ids[0], ids[1]), ids[1].length);
+        for (int k = 0; k < changes.size();) {
+            int last = k;
+            while (last + 1 < changes.size()
+                   && changes.get(last + 1)[0] - changes.get(last)[1]
+                      <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int[] first = changes.get(k), end = changes.get(last);
+            int lo1 = Math.max(0, first[0] - CONTEXT);
+            int hi1 = Math.min(ids[0].length, end[1] + CONTEXT);
+            int lo2 = first[2] - (first[0] - lo1);
+            int hi2 = end[3] + (hi1 - end[1]);
+            print(out, "@@ -" + range(lo1, hi1) + " +" + range(lo2, hi2)
+                  + " @@\n");
+            int pos = lo1;
+            for (; k <= last; k += 1) {
+                int[] c = changes.get(k);
+                writeLines(out, ' ', x, starts[0], pos, c[0]);
+                writeLines(out, '-', x, starts[0], c[0], c[1]);
+                writeLines(out, '+', y, starts[1], c[2], c[3]);
+                pos = c[1];
+            }
+            writeLines(out, ' ', x, starts[0], pos, hi1);
+        }
+    }
+
+    /** Returns the changed regions of an edit script given by MATCH, as
+     *  from match(A, B) with B of length BLENGTH, each as { start of
+     *  deleted lines in A, end of them, start of inserted lines in B, end
+     *  of them }, in order. */
+    static List<int[]> changes(int[] match, int bLength) {
+        List<int[]> result = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < match.length || j < bLength) {
+            if (i < match.length && match[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i, j0 = j;
+            while (i < match.length && match[i] < 0) {
+                i += 1;
+            }
+            j = i < match.length ? match[i] : bLength;
+            result.add(new int[] { i0, i, j0, j });
+        }
+        return result;
+    }
+
+    /** Returns the range of lines LO .. HI as written in a hunk header:
+     *  the first line, counting from 1, and the count if not 1.  An empty
+     *  range is numbered by the line before it. */
+    private static String range(int lo, int hi) {
+        if (hi - lo == 1) {
+            return Integer.toString(lo + 1);
+        }
+        return (hi == lo ? lo : lo + 1) + "," + (hi - lo);
+    }
+
+    /** Write to OUT lines FROM .. TO of TEXT, which start at STARTS, each
+     *  preceded by PREFIX. */
+    private static void writeLines(OutputStream out, char prefix,
+                                   byte[] text, int[] starts,
+                                   int from, int to) throws IOException {
+        for (int k = from; k < to; k += 1) {
+            out.write(prefix);
+            out.write(text, starts[k], starts[k + 1] - starts[k]);
+            if (text[starts[k + 1] - 1] != '\n') {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Write S to OUT. */
+    private static void print(OutputStream out, String s)
+        throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the contents of VERSION, or null if it has more than LIMIT
+     *  bytes, reading no more than LIMIT + 1 of them. */
+    static byte[] readAtMost(Version version, int limit) throws IOException {
+        try (InputStream in = version.open()) {
+            byte[] result = in.readNBytes(limit + 1);
+            return result.length > limit ? null : result;
+        }
+    }
+
+    /** Returns true iff TEXT looks like binary data. */
+    static boolean binary(byte[] text) {
+        for (int i = 0; i < Math.min(text.length, BINARY_CHECK); i += 1) {
+            if (text[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the offsets in TEXT of the starts of its lines, followed
+     *  by TEXT.length.  A final line need not end with a newline. */
+    static int[] lineStarts(byte[] text) {
+        int n = 0;
+        for (byte b : text) {
+            if (b == '\n') {
+                n += 1;
+            }
+        }
+        boolean partial = text.length > 0 && text[text.length - 1] != '\n';
+        int[] result = new int[n + (partial ? 1 : 0) + 1];
+        int k = 1;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n') {
+                result[k] = i + 1;
+                k += 1;
+            }
+        }
+        result[result.length - 1] = text.length;
+        return result;
+    }
+
+    /** Returns, for each of TEXTS, whose lines start at the
+     *  corresponding STARTS, the ids of its lines, numbering lines so that
+     *  two lines of any of TEXTS have the same id iff they are equal. */
+    static int[][] lineIds(byte[][] texts, int[][] starts) {
+        HashMap<Line, Integer> ids = new HashMap<>();
+        int[][] result = new int[texts.length][];
+        for (int t = 0; t < texts.length; t += 1) {
+            result[t] = new int[starts[t].length - 1];
+            for (int k = 0; k < result[t].length; k += 1) {
+                Line line = new Line(texts[t], starts[t][k],
+                                     starts[t][k + 1]);
+                Integer id = ids.putIfAbsent(line, ids.size());
+                result[t][k] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return result;
+    }
+
+    /** Returns an array giving, for each element of A, the index of the
+     *  element of B it is matched with by an edit script turning A into
+     *  B, or -1 if it is deleted.  Matched indices increase along A. */
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        new Diff(a, b, result).compare();
+        return result;
+    }
+
+    /** A comparison of A with B recording matches in MATCH. */
+    private Diff(int[] a, int[] b, int[] match) {
+        _a = a;
+        _b = b;
+        _match = match;
+        _offset = b.length + 1;
+        _forward = new int[a.length + b.length + 3];
+        _backward = new int[a.length + b.length + 3];
+        _maxCost = Math.max(MIN_COST,
+                            (int) Math.sqrt(a.length + b.length + 3));
+    }
+
+    /** Match the whole of _a against the whole of _b.  Boxes still to
+     *  be compared are kept on an explicit stack, since the recursion
+     *  may be deep. */
+    private void compare() {
+        ArrayDeque<int[]> work = new ArrayDeque<>();
+        work.push(new int[] { 0, _a.length, 0, _b.length });
+        while (!work.isEmpty()) {
+            int[] box = work.pop();
+            int lo1 = box[0], hi1 = box[1], lo2 = box[2], hi2 = box[3];
+            while (lo1 < hi1 && lo2 < hi2 && _a[lo1] == _b[lo2]) {
+                _match[lo1] = lo2;
+                lo1 += 1;
+                lo2 += 1;
+            }
+            while (lo1 < hi1 && lo2 < hi2 && _a[hi1 - 1] == _b[hi2 - 1]) {
+                _match[hi1 - 1] = hi2 - 1;
+                hi1 -= 1;
+                hi2 -= 1;
+            }
+            if (lo1 == hi1 || lo2 == hi2) {
+                continue;
+            }
+            split(lo1, hi1, lo2, hi2);
+            work.push(new int[] { _split1, hi1, _split2, hi2 });
+            work.push(new int[] { lo1, _split1, lo2, _split2 });
+        }
+    }
+
+    /** Find a point (_split1, _split2) on an edit script of _a[LO1 ..
+     *  HI1) into _b[LO2 .. HI2) that divides the box in two, both ends
+     *  of which are known to differ.  Diagonals are numbered by x - y;
+     *  _forward[k + _offset] is the furthest x reached on diagonal k
+     *  from the start, and _backward[k + _offset] the least x reached
+     *  from the end. */
+    private void split(int lo1, int hi1, int lo2, int hi2) {
+        int[] fwd = _forward, bwd = _backward;
+        int off = _offset;
+        int dmin = lo1 - hi2, dmax = hi1 - lo2;
+        int fmid = lo1 - lo2, bmid = hi1 - hi2;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        int fmin = fmid, fmax = fmid, bmin = bmid, bmax = bmid;
+        fwd[fmid + off] = lo1;
+        bwd[bmid + off] = hi1;
+        for (int cost = 1;; cost += 1) {
+            if (fmin > dmin) {
+                fmin -= 1;
+                fwd[fmin - 1 + off] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fmax += 1;
+                fwd[fmax + 1 + off] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int x = fwd[d - 1 + off] >= fwd[d + 1 + off]
+                    ? fwd[d - 1 + off] + 1 : fwd[d + 1 + off];
+                int y = x - d;
+                while (x < hi1 && y < hi2 && _a[x] == _b[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                fwd[d + off] = x;
+                if (odd && bmin <= d && d <= bmax && bwd[d + off] <= x) {
+                    _split1 = x;
+                    _split2 = y;
+                    return;
+                }
+            }
+            if (bmin > dmin) {
+                bmin -= 1;
+                bwd[bmin - 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bmax += 1;
+                bwd[bmax + 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int x = bwd[d - 1 + off] < bwd[d + 1 + off]
+                    ? bwd[d - 1 + off] : bwd[d + 1 + off] - 1;
+                int y = x - d;
+                while (x > lo1 && y > lo2 && _a[x - 1] == _b[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                bwd[d + off] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fwd[d + off]) {
+                    _split1 = x;
+                    _split2 = y;
+                    return;
+                }
+            }
+            if (cost >= _maxCost) {
+                splitApproximately(lo1, hi1, lo2, hi2, fmin, fmax,
+                                   bmin, bmax);
+                return;
+            }
+        }
+    }
+
+    /** Set (_split1, _split2) to whichever of the points furthest along
+     *  the forward search, on diagonals FMIN .. FMAX, and the backward
+     *  search, on diagonals BMIN .. BMAX, of the box _a[LO1 .. HI1),
+     *  _b[LO2 .. HI2) has come further. */
+    private void splitApproximately(int lo1, int hi1, int lo2, int hi2,
+                                    int fmin, int fmax,
+                                    int bmin, int bmax) {
+        int off = _offset;
+        long fbest = -1;
+        int fbest1 = -1;
+        for (int d = fmax; d >= fmin; d -= 2) {
+            int x = Math.min(_forward[d + off], hi1);
+            int y = x - d;
+            if (hi2 < y) {
+                x = hi2 + d;
+                y = hi2;
+            }
+            if (fbest < (long) x + y) {
+                fbest = (long) x + y;
+                fbest1 = x;
+            }
+        }
+        long bbest = Long.MAX_VALUE;
+        int bbest1 = -1;
+        for (int d = bmax; d >= bmin; d -= 2) {
+            int x = Math.max(lo1, _backward[d + off]);
+            int y = x - d;
+            if (y < lo2) {
+                x = lo2 + d;
+                y = lo2;
+            }
+            if ((long) x + y < bbest) {
+                bbest = (long) x + y;
+                bbest1 = x;
+            }
+        }
+        if ((long) hi1 + hi2 - bbest < fbest - lo1 - lo2) {
+            _split1 = fbest1;
+            _split2 = (int) (fbest - fbest1);
+        } else {
+            _split1 = bbest1;
+            _split2 = (int) (bbest - bbest1);
+        }
+    }
+
+    /** A line of a text, compared by contents. */
+    private static class Line {
+        /** The line TEXT[START .. END). */
+        Line(byte[] text, int start, int end) {
+            _text = text;
+            _start = start;
+            _end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + text[i];
+            }
+            _hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            return _hash == other._hash
+                && Arrays.equals(_text, _start, _end,
+                                 other._text, other._start, other._end);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Text containing the line. */
+        private final byte[] _text;
+        /** Bounds of the line in _text. */
+        private final int _start, _end;
+        /** Hash of the contents. */
+        private final int _hash;
+    }
+
+    /** The sequences compared. */
+    private final int[] _a, _b;
+    /** Matches found, indexed by position in _a. */
+    private final int[] _match;
+    /** Offset added to a diagonal to index _forward and _backward. */
+    private final int _offset;
+    /** Furthest reaching forward and backward paths, by diagonal. */
+    private final int[] _forward, _backward;
+    /** Steps a middle snake search may take before giving up. */
+    private final int _maxCost;
+    /** The point found by split. */
+    private int _split1, _split2;
+
+}
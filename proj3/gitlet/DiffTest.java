@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Diff.
+ *  @author Marcus Cheung
+ */
+public class DiffTest {
+
+    /** Returns the length of a longest common subsequence of A and B. */
+    static int lcs(int[] a, int[] b) {
+        int[][] len = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i -= 1) {
+            for (int j = b.length - 1; j >= 0; j -= 1) {
+                len[i][j] = a[i] == b[j] ? len[i + 1][j + 1] + 1
+                    : Math.max(len[i + 1][j], len[i][j + 1]);
+            }
+        }
+        return len[0][0];
+    }
+
+    /** Returns N random values below RANGE from RANDOM. */
+    static int[] random(Random random, int n, int range) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = random.nextInt(range);
+        }
+        return result;
+    }
+
+    /** Returns a version of a file holding TEXT. */
+    static Diff.Version version(String text) {
+        return () -> new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the unified diff of path f from A to B, either of which
+     *  may be null. */
+    static String unified(String a, String b) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Diff.writeUnified(out, "f", a == null ? null : version(a),
+                          b == null ? null : version(b));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void minimalMatch() {
+        Random random = new Random(6);
+        for (int k = 0; k < 200; k += 1) {
+            int[] a = random(random, random.nextInt(40), 4);
+            int[] b = random(random, random.nextInt(40), 4);
+            int[] match = Diff.match(a, b);
+            assertEquals(a.length, match.length);
+            int matched = 0, last = -1;
+            for (int i = 0; i < a.length; i += 1) {
+                if (match[i] >= 0) {
+                    assertTrue(match[i] > last);
+                    assertEquals(a[i], b[match[i]]);
+                    last = match[i];
+                    matched += 1;
+                }
+            }
+            assertEquals(lcs(a, b), matched);
+        }
+    }
+
+    @Test
+    public void changes() {
+        int[] match = Diff.match(new int[] { 1, 2, 3, 4 },
+                                 new int[] { 1, 5, 3, 4, 6 });
+        assertEquals(2, Diff.changes(match, 5).size());
+        assertArrayEquals(new int[] { 1, 2, 1, 2 },
+                          Diff.changes(match, 5).get(0));
+        assertArrayEquals(new int[] { 4, 4, 4, 5 },
+                          Diff.changes(match, 5).get(1));
+    }
+
+    @Test
+    public void lines() {
+        byte[] text = "a\nbb\n\nc".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(new int[] { 0, 2, 5, 6, 7 }, Diff.lineStarts(text));
+        assertFalse(Diff.binary(text));
+        assertTrue(Diff.binary(new byte[] { 'a', 0, 'b' }));
+    }
+
+    @Test
+    public void readAtMost() throws IOException {
+        assertEquals(3, Diff.readAtMost(version("abc"), 3).length);
+        assertNull(Diff.readAtMost(version("abcd"), 3));
+    }
+
+    @Test
+    public void writeUnified() throws IOException {
+        assertEquals("diff --git a/f b/f\n--- a/f\n+++ b/f\n@@ -1,3 +1,3 @@\n"
+                     + " a\n-b\n+x\n c\n",
+                     unified("a\nb\nc\n", "a\nx\nc\n"));
+        assertEquals("diff --git a/f b/f\nnew file\n"
+                     + "--- /dev/null\n+++ b/f\n@@ -0,0 +1 @@\n+new\n",
+                     unified(null, "new\n"));
+    }
+
+}
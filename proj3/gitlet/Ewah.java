@@ -0,0 +1,318 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+
+/** An immutable set of small nonnegative integers, kept as a bitmap
+ *  compressed by EWAH (enhanced word-aligned hybrid) encoding.  The
+ *  bitmap is a series of 64-bit words, each either a marker or a literal.
+ *  A marker
+ *      literals(31) run(32) bit(1)
+ *  from most to least significant bit, stands for RUN words all of
+ *  whose bits are BIT, followed by the LITERALS literal words after it.
+ *  Long runs of empty or full words thus take one word, while the
+ *  operations, which work a run at a time, take time proportional to the
+ *  compressed sizes of their operands.
+ *  @author Marcus Cheung
+ */
+class Ewah {
+
+    /** Bits per word. */
+    static final int WORD = 64;
+    /** Longest run of one marker. */
+    static final long MAX_RUN = (1L << 32) - 1;
+    /** Most literals after one marker. */
+    static final int MAX_LITERALS = (1 << 31) - 1;
+    /** The empty set. */
+    static final Ewah EMPTY = new Builder().build();
+
+    /** A bitmap of the words WORDS[0 .. SIZE). */
+    private Ewah(long[] words, int size) {
+        _words = words;
+        _size = size;
+    }
+
+    /** Returns the set of the bits of BITS. */
+    static Ewah of(BitSet bits) {
+        Builder result = new Builder();
+        for (long w : bits.toLongArray()) {
+            result.addWord(w);
+        }
+        return result.build();
+    }
+
+    /** Returns my bits as a BitSet. */
+    BitSet toBitSet() {
+        long[] words = new long[8];
+        int n = 0;
+        for (Cursor c = new Cursor(); !c.done(); ) {
+            long k = c.inRun() ? c.runLeft() : 1;
+            if (n + k > words.length) {
+                words = Arrays.copyOf(words,
+                                      (int) Math.max(n + k, 2L * n));
+            }
+            if (c.inRun()) {
+                Arrays.fill(words, n, (int) (n + k), c.fill());
+                c.skip(k);
+            } else {
+                words[n] = c.next();
+            }
+            n += k;
+        }
+        return BitSet.valueOf(Arrays.copyOf(words, n));
+    }
+
+    /** Returns the union of me and X. */
+    Ewah or(Ewah x) {
+        return combine(x, (a, b) -> a | b);
+    }
+
+    /** Returns the intersection of me and X. */
+    Ewah and(Ewah x) {
+        return combine(x, (a, b) -> a & b);
+    }
+
+    /** Returns the members of me that are not in X. */
+    Ewah andNot(Ewah x) {
+        return combine(x, (a, b) -> a & ~b);
+    }
+
+    /** Returns my number of members. */
+    int cardinality() {
+        int result = 0;
+        for (Cursor c = new Cursor(); !c.done(); ) {
+            if (c.inRun()) {
+                result += c.runBit() ? WORD * c.runLeft() : 0;
+                c.skip(c.runLeft());
+            } else {
+                result += Long.bitCount(c.next());
+            }
+        }
+        return result;
+    }
+
+    /** Pass each of my members, in increasing order, to ACTION. */
+    void forEach(IntConsumer action) {
+        long base = 0;
+        for (Cursor c = new Cursor(); !c.done(); ) {
+            if (c.inRun()) {
+                long n = c.runLeft();
+                if (c.runBit()) {
+                    for (long i = 0; i < n * WORD; i += 1) {
+                        action.accept((int) (base + i));
+                    }
+                }
+                base += n * WORD;
+                c.skip(n);
+            } else {
+                for (long w = c.next(); w != 0; w &= w - 1) {
+                    action.accept((int) base
+                                  + Long.numberOfTrailingZeros(w));
+                }
+                base += WORD;
+            }
+        }
+    }
+
+    /** Write my encoding, the number of words followed by the words, to
+     *  OUT. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_size);
+        for (int i = 0; i < _size; i += 1) {
+            out.writeLong(_words[i]);
+        }
+    }
+
+    /** Returns the bitmap whose encoding, as written by write, is next in
+     *  IN. */
+    static Ewah read(ByteBuffer in) {
+        long[] words = new long[in.getInt()];
+        in.asLongBuffer().get(words);
+        in.position(in.position() + Long.BYTES * words.length);
+        return new Ewah(words, words.length);
+    }
+
+    /** Returns the bitmap whose words are OP applied to my words and those
+     *  of X, where OP of two empty words is empty.  The shorter bitmap is
+     *  taken to continue with empty words. */
+    private Ewah combine(Ewah x, LongBinaryOperator op) {
+        Builder result = new Builder();
+        Cursor a = new Cursor(), b = x.new Cursor();
+        while (!a.done() || !b.done()) {
+            if (a.inRun() && b.inRun()) {
+                long n = Math.min(a.runLeft(), b.runLeft());
+                result.addRun(op.applyAsLong(a.fill(), b.fill()) != 0, n);
+                a.skip(n);
+                b.skip(n);
+            } else {
+                result.addWord(op.applyAsLong(a.next(), b.next()));
+            }
+        }
+        return result.build();
+    }
+
+    /** A reader of my words, one run or literal at a time.  Once all are
+     *  read, it reads as an endless run of empty words. */
+    private class Cursor {
+        /** A cursor at my first word. */
+        Cursor() {
+            load();
+        }
+
+        /** Returns true iff every word has been read. */
+        boolean done() {
+            return _runLeft == 0 && _literalsLeft == 0 && _next >= _size;
+        }
+
+        /** Returns true iff the next word is part of a run. */
+        boolean inRun() {
+            return _runLeft > 0 || done();
+        }
+
+        /** Returns the number of words left in the current run. */
+        long runLeft() {
+            return done() ? Long.MAX_VALUE : _runLeft;
+        }
+
+        /** Returns the bit of the current run. */
+        boolean runBit() {
+            return _runBit;
+        }
+
+        /** Returns a word of the current run. */
+        long fill() {
+            return _runBit && !done() ? -1L : 0L;
+        }
+
+        /** Skip N words of the current run. */
+        void skip(long n) {
+            if (!done()) {
+                _runLeft -= n;
+                load();
+            }
+        }
+
+        /** Returns the next word, run or literal, and move past it. */
+        long next() {
+            if (done()) {
+                return 0L;
+            } else if (_runLeft > 0) {
+                long w = fill();
+                skip(1);
+                return w;
+            }
+            long w = _words[_next];
+            _next += 1;
+            _literalsLeft -= 1;
+            load();
+            return w;
+        }
+
+        /** Move past spent markers to the next unread word. */
+        private void load() {
+            while (_runLeft == 0 && _literalsLeft == 0 && _next < _size) {
+                long marker = _words[_next];
+                _next += 1;
+                _runBit = (marker & 1) != 0;
+                _runLeft = (marker >>> 1) & MAX_RUN;
+                _literalsLeft = (int) (marker >>> 33);
+            }
+        }
+
+        /** Index of the next word of _words to read. */
+        private int _next;
+        /** Words left in the current run. */
+        private long _runLeft;
+        /** Bit of the current run. */
+        private boolean _runBit;
+        /** Literals left after the current marker. */
+        private int _literalsLeft;
+    }
+
+    /** A bitmap under construction, built one word at a time. */
+    static class Builder {
+        /** Append N words all of whose bits are BIT. */
+        void addRun(boolean bit, long n) {
+            while (n > 0) {
+                if (_marker < 0 || literals() > 0 || run() == MAX_RUN
+                    || run() > 0 && runBit() != bit) {
+                    newMarker();
+                }
+                long k = Math.min(n, MAX_RUN - run());
+                long marker = _words[_marker];
+                _words[_marker] = (marker & ~((MAX_RUN << 1) | 1))
+                    | ((run() + k) << 1) | (bit ? 1 : 0);
+                n -= k;
+            }
+        }
+
+        /** Append the word W. */
+        void addWord(long w) {
+            if (w == 0 || w == -1L) {
+                addRun(w != 0, 1);
+                return;
+            }
+            if (_marker < 0 || literals() == MAX_LITERALS) {
+                newMarker();
+            }
+            _words[_marker] += 1L << 33;
+            append(w);
+        }
+
+        /** Returns the bitmap built, with trailing empty runs dropped. */
+        Ewah build() {
+            if (_marker >= 0 && literals() == 0 && !runBit()) {
+                _size = _marker;
+            }
+            return new Ewah(Arrays.copyOf(_words, _size), _size);
+        }
+
+        /** Start a new, empty marker. */
+        private void newMarker() {
+            _marker = _size;
+            append(0L);
+        }
+
+        /** Append W to _words. */
+        private void append(long w) {
+            if (_size == _words.length) {
+                _words = Arrays.copyOf(_words, 2 * _words.length);
+            }
+            _words[_size] = w;
+            _size += 1;
+        }
+
+        /** Returns the run length of the current marker. */
+        private long run() {
+            return _marker < 0 ? 0 : (_words[_marker] >>> 1) & MAX_RUN;
+        }
+
+        /** Returns the run bit of the current marker. */
+        private boolean runBit() {
+            return (_words[_marker] & 1) != 0;
+        }
+
+        /** Returns the number of literals after the current marker. */
+        private int literals() {
+            return (int) (_words[_marker] >>> 33);
+        }
+
+        /** Words written so far. */
+        private long[] _words = new long[4];
+        /** Number of words written. */
+        private int _size;
+        /** Index of the current marker, or -1 if none. */
+        private int _marker = -1;
+    }
+
+    /** My words. */
+    private final long[] _words;
+    /** Number of my words in use. */
+    private final int _size;
+
+}
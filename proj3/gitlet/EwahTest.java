@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Ewah.
+ *  @author Marcus Cheung
+ */
+public class EwahTest {
+
+    /** Returns a set of bits below N, in random runs, from RANDOM. */
+    static BitSet random(Random random, int n) {
+        BitSet result = new BitSet();
+        int i = 0;
+        while (i < n) {
+            int run = 1 + random.nextInt(random.nextBoolean() ? 8 : 500);
+            switch (random.nextInt(3)) {
+            case 0:
+                result.set(i, Math.min(n, i + run));
+                break;
+            case 1:
+                for (int j = i; j < Math.min(n, i + run); j += 1) {
+                    result.set(j, random.nextBoolean());
+                }
+                break;
+            default:
+                break;
+            }
+            i += run;
+        }
+        return result;
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, Ewah.EMPTY.cardinality());
+        assertEquals(new BitSet(), Ewah.EMPTY.toBitSet());
+        assertEquals(new BitSet(), Ewah.of(new BitSet()).toBitSet());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Random random = new Random(4);
+        for (int k = 0; k < 50; k += 1) {
+            BitSet bits = random(random, random.nextInt(20000));
+            Ewah e = Ewah.of(bits);
+            assertEquals(bits, e.toBitSet());
+            assertEquals(bits.cardinality(), e.cardinality());
+            List<Integer> each = new ArrayList<>();
+            e.forEach(each::add);
+            assertEquals(bits.stream().boxed().toList(), each);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            e.write(new DataOutputStream(bytes));
+            assertEquals(bits, Ewah.read(ByteBuffer.wrap(bytes.toByteArray()))
+                         .toBitSet());
+        }
+    }
+
+    @Test
+    public void operations() {
+        Random random = new Random(5);
+        for (int k = 0; k < 50; k += 1) {
+            BitSet x = random(random, random.nextInt(20000));
+            BitSet y = random(random, random.nextInt(20000));
+            Ewah ex = Ewah.of(x), ey = Ewah.of(y);
+            BitSet expected = (BitSet) x.clone();
+            expected.or(y);
+            assertEquals(expected, ex.or(ey).toBitSet());
+            expected = (BitSet) x.clone();
+            expected.and(y);
+            assertEquals(expected, ex.and(ey).toBitSet());
+            expected = (BitSet) x.clone();
+            expected.andNot(y);
+            assertEquals(expected, ex.andNot(ey).toBitSet());
+        }
+    }
+
+}
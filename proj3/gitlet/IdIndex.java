@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A sorted index from commit ids to their positions in a commit graph,
+ *  searched by binary search over a memory-mapped file.  The index
+ *  covers a prefix of the graph; commits appended since it was written
+ *  form a short tail that is searched directly, and once the tail grows
+ *  past TAIL_LIMIT the two are merged into a new index file.
+ *
+ *  The file holds MAGIC, VERSION, the number of graph positions covered,
+ *  a fan-out table of 256 counts (entry i being the number of ids whose
+ *  first byte is <= i), and one id(20) position(4) record per commit,
+ *  sorted by id.
+ *  @author Marcus Cheung
+ */
+class IdIndex {
+
+    /** First word of an id index file. */
+    static final int MAGIC = 0x474c4958;
+    /** Format version of id index files. */
+    static final int VERSION = 1;
+    /** Shortest abbreviation accepted for an id. */
+    static final int MIN_ABBREV = 4;
+    /** Number of unindexed commits tolerated before the index is merged
+     *  with them. */
+    static final int TAIL_LIMIT = 64;
+    /** Size of the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Size of the file header. */
+    private static final int HEADER = 4 * (3 + FANOUT);
+    /** Size of one record. */
+    private static final int RECORD = Utils.UID_BYTES + 4;
+
+    /** The index stored in FILE over the commits of GRAPH. */
+    IdIndex(File file, CommitGraph graph) {
+        _file = file;
+        _graph = graph;
+    }
+
+    /** Create FILE holding an index that covers no commits. */
+    static void create(File file) {
+        write(file, 0, new byte[0][]);
+    }
+
+    /** Make this index cover no commits. */
+    void clear() {
+        write(_file, 0, new byte[0][]);
+        _buffer = null;
+    }
+
+    /** Returns the position in the graph of the commit named ID, or
+     *  CommitGraph.NONE if there is none. */
+    int position(String id) {
+        byte[] key = Utils.toBytes(id);
+        int pos = _graph.find(key, covered());
+        if (pos != CommitGraph.NONE) {
+            return pos;
+        }
+        ByteBuffer buf = buffer();
+        int k = lowerBound(key);
+        if (k < count() && compare(buf, k, key) == 0) {
+            return buf.getInt(offset(k) + Utils.UID_BYTES);
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the full ids of all commits whose ids start with PREFIX, a
+     *  string of MIN_ABBREV to UID_LENGTH hexadecimal digits, in sorted
+     *  order.  Returns an empty list if PREFIX is not of that form. */
+    List<String> resolve(String prefix) {
+        List<String> result = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() < MIN_ABBREV
+            || prefix.length() > Utils.UID_LENGTH
+            || !prefix.matches("[0-9a-f]*")) {
+            return result;
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        ByteBuffer buf = buffer();
+        for (int k = lowerBound(Utils.toBytes(low.toString()));
+             k < count(); k += 1) {
+            String id = id(buf, k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (int pos = covered(); pos < _graph.size(); pos += 1) {
+            String id = _graph.id(pos);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Merge the commits appended to the graph since this index was
+     *  written into it, if there are more than TAIL_LIMIT of them. */
+    void update() {
+        if (_graph.size() - covered() > TAIL_LIMIT) {
+            rebuild();
+        }
+    }
+
+    /** Rewrite this index to cover the whole graph. */
+    void rebuild() {
+        ByteBuffer buf = buffer();
+        int n = _graph.size();
+        byte[][] records = new byte[n][];
+        int k;
+        for (k = 0; k < count(); k += 1) {
+            records[k] = new byte[RECORD];
+            buf.get(offset(k), records[k]);
+        }
+        for (int pos = covered(); pos < n; pos += 1, k += 1) {
+            records[k] = ByteBuffer.allocate(RECORD)
+                .put(Utils.toBytes(_graph.id(pos))).putInt(pos).array();
+        }
+        Arrays.sort(records, (x, y) -> Arrays.compareUnsigned(
+                        x, 0, Utils.UID_BYTES, y, 0, Utils.UID_BYTES));
+        File tmp = new File(_file.getPath() + ".tmp");
+        write(tmp, n, records);
+        _buffer = null;
+        if (!tmp.renameTo(_file)) {
+            throw new IllegalArgumentException("could not replace "
+                                               + _file);
+        }
+    }
+
+    /** Write to FILE an index covering the first COVERED graph positions,
+     *  whose sorted RECORDS are given. */
+    private static void write(File file, int covered, byte[][] records) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(covered);
+            int k = 0;
+            for (int b = 0; b < FANOUT; b += 1) {
+                while (k < records.length && (records[k][0] & 0xff) <= b) {
+                    k += 1;
+                }
+                out.writeInt(k);
+            }
+            for (byte[] r : records) {
+                out.write(r);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of graph positions covered by the file. */
+    private int covered() {
+        return buffer().getInt(8);
+    }
+
+    /** Returns the number of records in the file. */
+    private int count() {
+        return buffer().getInt(HEADER - 4);
+    }
+
+    /** Returns the index of the first record whose id is not less than
+     *  KEY, narrowing the search with the fan-out table. */
+    private int lowerBound(byte[] key) {
+        ByteBuffer buf = buffer();
+        int b = key[0] & 0xff;
+        int lo = b == 0 ? 0 : buf.getInt(12 + 4 * (b - 1));
+        int hi = buf.getInt(12 + 4 * b);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buf, mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the id of record K of BUF with KEY as unsigned bytes. */
+    private static int compare(ByteBuffer buf, int k, byte[] key) {
+        int off = offset(k);
+        for (int i = 0; i < key.length; i += 1) {
+            int c = Integer.compare(buf.get(off + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the id of record K of BUF. */
+    private static String id(ByteBuffer buf, int k) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        buf.get(offset(k), id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the offset of record K. */
+    private static int offset(int k) {
+        return HEADER + k * RECORD;
+    }
+
+    /** Returns the contents of my file, mapping it on first use. */
+    private ByteBuffer buffer() {
+        if (_buffer == null) {
+            try (RandomAccessFile f = new RandomAccessFile(_file, "r")) {
+                _buffer = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                             0, f.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_buffer.limit() < HEADER || _buffer.getInt(0) != MAGIC
+                || _buffer.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad id index");
+            }
+        }
+        return _buffer;
+    }
+
+    /** File holding the index. */
+    private final File _file;
+    /** The graph whose commits are indexed. */
+    private final CommitGraph _graph;
+    /** Contents of _file, or null if not yet mapped. */
+    private ByteBuffer _buffer;
+
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The index: the set of files that the next commit will track, each with
+ *  its blob id and the size and modification time its working file had
+ *  when that id was last computed.  A file is staged for addition when
+ *  its blob here differs from the head commit's, and staged for removal
+ *  when the head commit tracks it but the index does not.
+ *
+ *  Stat data lets commands skip rehashing working files that have not
+ *  changed.  An entry is trusted only if its modification time is older
+ *  than the index itself by more than RACY_MILLIS, since a file changed
+ *  within the timestamp granularity of the file system might otherwise
+ *  keep the same size and time.
+ *
+ *  The file holds the Codec header, the time the index was written, and
+ *  then count(4) { name id(20) size(8) mtime(8) }* sorted by name.
+ *  @author Marcus Cheung
+ */
+class Index {
+
+    /** Modification times this close to the index's own are not trusted. */
+    static final long RACY_MILLIS = 2000;
+
+    /** An empty index to be stored in FILE. */
+    Index(File file) {
+        _file = file;
+    }
+
+    /** Returns the index stored in FILE. */
+    static Index read(File file) {
+        Index result = new Index(file);
+        ByteBuffer in = Codec.open(Utils.readContents(file), Codec.INDEX);
+        result._written = in.getLong();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String name = Codec.readString(in);
+            String id = Codec.readId(in);
+            result._entries.put(name, new Entry(id, in.getLong(),
+                                                in.getLong()));
+        }
+        return result;
+    }
+
+    /** Write this index to its file. */
+    void write() {
+        _written = System.currentTimeMillis();
+        Utils.writeContents(_file, Codec.encode(Codec.INDEX, out -> {
+            out.writeLong(_written);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Codec.writeString(out, e.getKey());
+                Codec.writeId(out, e.getValue().id);
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+            }
+        }));
+        _dirty = false;
+    }
+
+    /** Write this index to its file if it has changed since it was read
+     *  or last written. */
+    void writeIfChanged() {
+        if (_dirty) {
+            write();
+        }
+    }
+
+    /** Returns a read-only map from each indexed file name to its blob id,
+     *  in order of name. */
+    Map<String, String> files() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            result.put(e.getKey(), e.getValue().id);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /** Returns true iff NAME is in the index. */
+    boolean contains(String name) {
+        return _entries.containsKey(name);
+    }
+
+    /** Returns the blob id of NAME, or null if it is not in the index. */
+    String get(String name) {
+        Entry e = _entries.get(name);
+        return e == null ? null : e.id;
+    }
+
+    /** Record ID as the blob for NAME.  If SOURCE is non-null, it is a file
+     *  whose contents are known to have id ID, and its stat data is
+     *  remembered; otherwise NAME will be rehashed when next examined. */
+    void put(String name, String id, File source) {
+        long size = source == null ? -1 : source.length();
+        long mtime = source == null ? -1 : source.lastModified();
+        _entries.put(name, new Entry(id, size, mtime));
+        _dirty = true;
+    }
+
+    /** Remove NAME from the index. */
+    void remove(String name) {
+        if (_entries.remove(name) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Replace the contents of this index with FILES, a map from names to
+     *  blob ids.  Stat data is taken from the files of the same names in
+     *  DIR, which must currently hold exactly those blobs. */
+    void reset(Map<String, String> files, File dir) {
+        _entries.clear();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            put(e.getKey(), e.getValue(), Utils.join(dir, e.getKey()));
+        }
+        _dirty = true;
+    }
+
+    /** Returns the blob id of the contents of WORKING, the working file
+     *  for NAME.  If NAME's stat data shows that WORKING is unchanged
+     *  since it was hashed, returns the recorded id without reading the
+     *  file; otherwise hashes it and, if the result matches, refreshes the
+     *  stat data.  WORKING must exist. */
+    String hash(String name, File working) {
+        Entry e = _entries.get(name);
+        if (e != null && unchanged(e, working)) {
+            return e.id;
+        }
+        String id = Utils.sha1(working);
+        if (e != null && e.id.equals(id)
+            && working.lastModified() + RACY_MILLIS
+               < System.currentTimeMillis()) {
+            put(name, id, working);
+        }
+        return id;
+    }
+
+    /** Returns true iff NAME is in the index and its stat data shows that
+     *  WORKING has not changed since it was hashed. */
+    boolean unchanged(String name, File working) {
+        Entry e = _entries.get(name);
+        return e != null && unchanged(e, working);
+    }
+
+    /** Returns true iff WORKING's stat data matches E, and E's time is old
+     *  enough to be trusted. */
+    private boolean unchanged(Entry e, File working) {
+        return e.size >= 0 && e.size == working.length()
+            && e.mtime == working.lastModified()
+            && e.mtime + RACY_MILLIS < _written;
+    }
+
+    /** One file in the index. */
+    private static class Entry {
+        /** An entry for blob ID whose working file had SIZE bytes and
+         *  modification time MTIME when hashed. */
+        Entry(String id, long size, long mtime) {
+            this.id = id;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        /** Blob id. */
+        private final String id;
+        /** Size of working file, or -1 if unknown. */
+        private final long size;
+        /** Modification time of working file, or -1 if unknown. */
+        private final long mtime;
+    }
+
+    /** File holding this index. */
+    private final File _file;
+    /** Entries by name. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+    /** Time at which this index was last written. */
+    private long _written;
+    /** True iff I have changed since last read or written. */
+    private boolean _dirty;
+
+}
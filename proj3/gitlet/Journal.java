@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/** An append-only log of every change to a repository's refs.  A change
+ *  is made by appending its record, syncing the journal, and then
+ *  applying the record to the refs, the commit graph and the message
+ *  index, none of which are synced.  The number of bytes of the journal
+ *  known to be applied is kept in a separate file, and on startup any
+ *  records past that point are applied again.  Applying a record is
+ *  idempotent, so if gitlet dies at any point the repository is left
+ *  either without the change or, once recovered, with all of it.
+ *
+ *  Only the record is synced.  The trees and blobs a new commit names
+ *  are written, like every other object, without a sync, so after a
+ *  crash of the whole system a recovered commit is complete only if the
+ *  operating system had already written them out.
+ *
+ *  Each record is length(4) crc(4) kind(1) body, where the CRC-32 covers
+ *  the kind and body.  A record cut short by a crash fails its check and
+ *  is discarded.  Bodies are
+ *      COMMIT  branch length(4) commit
+ *      REF     name hasId(1) [id(20)]
+ *      HEAD    name
+ *  with strings written as by Codec and commits as by Commit.encode.
+ *  A commit record holds the whole commit, so the commit object itself
+ *  is as safe as the record.
+ *  @author Marcus Cheung
+ */
+class Journal {
+
+    /** Kind of a record of a new commit on a branch. */
+    static final byte COMMIT = 1;
+    /** Kind of a record of a branch being moved, created or deleted. */
+    static final byte REF = 2;
+    /** Kind of a record of a change of current branch. */
+    static final byte HEAD = 3;
+    /** Length past which a journal whose records are all applied is
+     *  emptied by recover. */
+    static final long MAX_LENGTH = 1 << 20;
+
+    /** The journal kept in FILE, with the length applied so far kept in
+     *  APPLIED, recording changes to COMMITS, REFS, GRAPH and MESSAGES. */
+    Journal(File file, File applied, LooseStore commits, RefStore refs,
+            CommitGraph graph, MessageIndex messages) {
+        _file = file;
+        _applied = applied;
+        _commits = commits;
+        _refs = refs;
+        _graph = graph;
+        _messages = messages;
+    }
+
+    /** Create an empty journal in FILE whose applied length is kept in
+     *  APPLIED. */
+    static void create(File file, File applied) {
+        Utils.writeContents(file, new byte[0]);
+        Utils.writeContents(applied, new byte[Long.BYTES]);
+    }
+
+    /** Discard every record, all of which must have been applied.  The
+     *  applied length is reset first, so that a crash before the journal
+     *  is emptied only causes its records to be applied again. */
+    void clear() {
+        setApplied(0);
+        truncate(_file, 0);
+    }
+
+    /** Record and apply COMMIT as the new head of BRANCH. */
+    void commit(Commit commit, String branch) {
+        byte[] encoded = commit.encode();
+        record(COMMIT, out -> {
+            Codec.writeString(out, branch);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        });
+    }
+
+    /** Record and apply the move of branch NAME to ID, or its deletion if
+     *  ID is null. */
+    void setRef(String name, String id) {
+        record(REF, out -> {
+            Codec.writeString(out, name);
+            out.writeBoolean(id != null);
+            if (id != null) {
+                Codec.writeId(out, id);
+            }
+        });
+    }
+
+    /** Record and apply the change of current branch to NAME. */
+    void setHead(String name) {
+        record(HEAD, out -> Codec.writeString(out, name));
+    }
+
+    /** Apply any records not known to have been applied, discarding a
+     *  final record left incomplete by a crash.  Once every record is
+     *  applied, a journal longer than MAX_LENGTH is emptied, so that it
+     *  does not grow without bound between collections. */
+    void recover() {
+        long start = applied();
+        long end = _file.length();
+        if (start < end) {
+            end = replay(start, end);
+        }
+        if (end > MAX_LENGTH) {
+            clear();
+        }
+    }
+
+    /** Apply the records in bytes [START .. END) of the journal, cut off
+     *  any incomplete record at its end, and return its new length. */
+    private long replay(long start, long end) {
+        _graph.repair();
+        _messages.repair();
+        ByteBuffer in = ByteBuffer.allocate((int) (end - start));
+        try (RandomAccessFile f = new RandomAccessFile(_file, "r")) {
+            f.seek(start);
+            f.readFully(in.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        while (in.remaining() >= 2 * Integer.BYTES) {
+            int len = in.getInt();
+            long crc = in.getInt() & 0xffffffffL;
+            if (len <= 0 || len > in.remaining()) {
+                in.position(in.position() - 2 * Integer.BYTES);
+                break;
+            }
+            ByteBuffer record = in.slice(in.position(), len);
+            CRC32 check = new CRC32();
+            check.update(record.duplicate());
+            if (check.getValue() != crc) {
+                in.position(in.position() - 2 * Integer.BYTES);
+                break;
+            }
+            in.position(in.position() + len);
+            apply(record);
+        }
+        long good = start + in.position();
+        if (good < end) {
+            truncate(_file, good);
+        }
+        setApplied(good);
+        return good;
+    }
+
+    /** Append a record of kind KIND whose body is written by BODY, sync
+     *  it to disk, and apply it. */
+    private void record(byte kind, Codec.Writer body) {
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(kind);
+            body.write(out);
+            out.close();
+            data = bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        long end;
+        try (FileOutputStream out = new FileOutputStream(_file, true)) {
+            out.write(ByteBuffer.allocate(2 * Integer.BYTES + data.length)
+                      .putInt(data.length).putInt((int) crc.getValue())
+                      .put(data).array());
+            out.getFD().sync();
+            end = out.getChannel().position();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        apply(ByteBuffer.wrap(data));
+        setApplied(end);
+    }
+
+    /** Make the change recorded in RECORD, a kind followed by a body,
+     *  unless it has already been made. */
+    private void apply(ByteBuffer record) {
+        switch (record.get()) {
+        case COMMIT:
+            String branch = Codec.readString(record);
+            byte[] encoded = new byte[record.getInt()];
+            record.get(encoded);
+            Commit commit = Commit.decode(encoded);
+            String id = commit.getID();
+            if (!_commits.contains(id)) {
+                _commits.write(id, encoded);
+            }
+            if (_graph.position(id) == CommitGraph.NONE) {
+                _graph.append(commit);
+            }
+            List<String> msgs = new ArrayList<>();
+            for (int pos = _messages.size(); pos < _graph.size();
+                 pos += 1) {
+                msgs.add(Commit.decode(_commits.read(_graph.id(pos)))
+                         .getMSG());
+            }
+            _messages.add(msgs);
+            _refs.put(branch, id);
+            break;
+        case REF:
+            String name = Codec.readString(record);
+            if (record.get() != 0) {
+                _refs.put(name, Codec.readId(record));
+            } else if (_refs.branches().containsKey(name)) {
+                _refs.remove(name);
+            }
+            break;
+        case HEAD:
+            _refs.setCurrent(Codec.readString(record));
+            break;
+        default:
+            throw new IllegalArgumentException("bad journal record");
+        }
+    }
+
+    /** Cut FILE down to its first LENGTH bytes. */
+    static void truncate(File file, long length) {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the journal known to have been applied, or
+     *  0 if that is unknown. */
+    private long applied() {
+        byte[] data = _applied.exists() ? Utils.readContents(_applied)
+            : new byte[0];
+        return data.length == Long.BYTES ? ByteBuffer.wrap(data).getLong()
+            : 0;
+    }
+
+    /** Note that the first LENGTH bytes of the journal have been
+     *  applied. */
+    private void setApplied(long length) {
+        Utils.writeContents(_applied, ByteBuffer.allocate(Long.BYTES)
+                            .putLong(length).array());
+    }
+
+    /** File holding the journal. */
+    private final File _file;
+    /** File holding the applied length. */
+    private final File _applied;
+    /** The store to which the journal writes commits. */
+    private final LooseStore _commits;
+    /** The refs changed by the journal. */
+    private final RefStore _refs;
+    /** The commit graph extended by the journal. */
+    private final CommitGraph _graph;
+    /** The message index extended by the journal. */
+    private final MessageIndex _messages;
+
+}
@@ -0,0 +1,219 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** An object store that keeps each object DEFLATE-compressed in its own
+ *  file.  The object named ID lives in DIR/XX/YYYY..., where XX is the
+ *  first two characters of ID and YYYY... the rest, so that no single
+ *  directory grows too large.
+ *  @author Marcus Cheung
+ */
+class LooseStore implements ObjectStore {
+
+    /** Number of id characters used to name the fan-out directory. */
+    static final int FANOUT_CHARS = 2;
+
+    /** A store whose objects live under DIR. */
+    LooseStore(File dir) {
+        _dir = dir;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return file(id).isFile();
+    }
+
+    @Override
+    public byte[] read(String id) {
+        long start = Trace.start();
+        try (InputStream in = open(id)) {
+            byte[] result = in.readAllBytes();
+            Trace.count("object.read", result.length, start);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public InputStream open(String id) {
+        File f = file(id);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        try {
+            return new InflaterInputStream(new FileInputStream(f),
+                                           new Inflater(),
+                                           Utils.BUFFER_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public String write(File source) {
+        try (InputStream in = new FileInputStream(source)) {
+            return write(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the contents read from SOURCE, to its end, and return their id.
+     *  The contents are hashed and compressed as they are read, so they
+     *  are never all in memory. */
+    String write(InputStream source) {
+        long start = Trace.start();
+        long n;
+        File tmp;
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+            _dir.mkdirs();
+            tmp = File.createTempFile("incoming", ".tmp", _dir);
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (InputStream in = new DigestInputStream(source, md);
+             OutputStream out = new DeflaterOutputStream(
+                 new FileOutputStream(tmp), new Deflater(),
+                 Utils.BUFFER_SIZE)) {
+            n = in.transferTo(out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.toHex(md.digest());
+        install(tmp, id);
+        Trace.count("object.write", n, start);
+        return id;
+    }
+
+    @Override
+    public String write(byte[] contents) {
+        String id = Utils.sha1(contents);
+        if (!contains(id)) {
+            write(id, contents);
+        }
+        return id;
+    }
+
+    @Override
+    public void write(String id, byte[] contents) {
+        long start = Trace.start();
+        File tmp;
+        try {
+            _dir.mkdirs();
+            tmp = File.createTempFile("incoming", ".tmp", _dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (OutputStream out =
+                 new DeflaterOutputStream(new FileOutputStream(tmp))) {
+            out.write(contents);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File f = file(id);
+        f.getParentFile().mkdirs();
+        rename(tmp, f, id);
+        Trace.count("object.write", contents.length, start);
+    }
+
+    /** Make the compressed object in TMP the object named ID, unless
+     *  there already is one, in which case TMP is simply removed. */
+    private void install(File tmp, String id) {
+        File f = file(id);
+        if (f.isFile()) {
+            tmp.delete();
+            return;
+        }
+        f.getParentFile().mkdirs();
+        rename(tmp, f, id);
+    }
+
+    /** Rename TMP to F, the file of the object named ID, replacing F.
+     *  Each writer has its own TMP, so concurrent writers of one object
+     *  cannot disturb each other; if the rename fails but F exists,
+     *  another writer has just stored the object, and TMP is dropped. */
+    private static void rename(File tmp, File f, String id) {
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            if (!f.isFile()) {
+                throw new IllegalArgumentException("could not write " + id);
+            }
+        }
+    }
+
+    /** Returns true iff the object named ID holds at most LIMIT bytes.
+     *  Only the first LIMIT + 1 bytes are decompressed. */
+    boolean sizeAtMost(String id, long limit) {
+        try (InputStream in = open(id)) {
+            return in.skip(limit) < limit || in.read() < 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> ids() {
+        List<String> result = new ArrayList<>();
+        String[] dirs = _dir.list();
+        if (dirs == null) {
+            return result;
+        }
+        Arrays.sort(dirs);
+        for (String prefix : dirs) {
+            if (prefix.length() == FANOUT_CHARS) {
+                result.addAll(ids(prefix));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of my objects that are in the fan-out directory
+     *  named PREFIX, in sorted order. */
+    List<String> ids(String prefix) {
+        List<String> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(Utils.join(_dir, prefix));
+        if (names != null) {
+            for (String rest : names) {
+                if (!rest.endsWith(".tmp")) {
+                    result.add(prefix + rest);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Removes the object named ID, if present. */
+    void delete(String id) {
+        file(id).delete();
+    }
+
+    /** Returns the file holding the object named ID. */
+    File file(String id) {
+        return Utils.join(_dir, id.substring(0, FANOUT_CHARS),
+                          id.substring(FANOUT_CHARS));
+    }
+
+    /** Directory holding my objects. */
+    private final File _dir;
+
+}
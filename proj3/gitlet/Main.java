@@ -2,6 +2,7 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Marcus Cheung
@@ -18,26 +19,89 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) throws IOException {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                daemon(args);
+            } else {
+                run(new Repo(), Client.traced(args));
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
             System.exit(0);
         }
+    }
+
+    /** Perform the command in ARGS on R, reporting errors by throwing a
+     *  GitletException carrying the message to print.  The command is
+     *  traced if ARGS starts with "--trace" or "--trace=json", as
+     *  described in Trace; GITLET_TRACE is turned into that flag by
+     *  Client.traced before ARGS reach here. */
+    static void run(Repo r, String... args) throws IOException {
+        if (args.length == 0 || !(args[0].equals("--trace")
+                                  || args[0].equals("--trace=json"))) {
+            command(r, args);
+            return;
+        }
+        boolean json = args[0].equals("--trace=json");
+        args = Arrays.copyOfRange(args, 1, args.length);
+        Trace.begin(json);
+        try {
+            command(r, args);
+        } finally {
+            Trace.end(System.err, String.join(" ", args));
+        }
+    }
+
+    /** Perform the command in ARGS on R, as for run. */
+    private static void command(Repo r, String... args) throws IOException {
+        if (args.length == 0) {
+            throw new GitletException("Please enter a command.");
+        }
         String type = args[0];
-        Repo r = new Repo();
         if (type.equals("init")) {
             r.init();
+            return;
         } else if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
-        } else if (type.equals("add")) {
-            r.add(args[1]);
+            throw new GitletException(
+                "Not in an initialized Gitlet directory.");
+        }
+        Trace.Phase opening = Trace.phase("open");
+        try {
+            r.migrate();
+            r.recover();
+        } finally {
+            opening.close();
+        }
+        Trace.Phase running = Trace.phase(type);
+        try {
+            dispatch(r, type, args);
+        } finally {
+            running.close();
+        }
+    }
+
+    /** Perform the command TYPE, with arguments ARGS, on R, which is
+     *  ready for use. */
+    private static void dispatch(Repo r, String type, String... args)
+        throws IOException {
+        if (type.equals("add")) {
+            r.add(Arrays.copyOfRange(args, 1, args.length));
         } else if (type.equals("commit")) {
             r.commit(args[1]);
 
         } else if (type.equals("rm")) {
             r.remove(args[1]);
         } else if (type.equals("log")) {
-            r.log();
+            int sep = Arrays.asList(args).indexOf("--");
+            if (sep < 0) {
+                int[] page = page(args);
+                r.log(page[0], page[1]);
+            } else if (sep == args.length - 2) {
+                int[] page = page(Arrays.copyOf(args, sep));
+                r.log(page[0], page[1], args[sep + 1]);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
         } else if (type.equals("checkout")) {
             if (args.length == 3 && args[1].equals("--")) {
                 r.checkout(args[2]);
@@ -46,13 +110,19 @@ public class Main {
             } else if (args.length == 2) {
                 r.bcheckout(args[1]);
             } else {
-                System.out.println("Incorrect operands.");
-                System.exit(0);
+                throw new GitletException("Incorrect operands.");
             }
         } else if (type.equals("global-log")) {
-            r.globalLog();
+            int[] page = page(args);
+            r.globalLog(page[0], page[1]);
         } else if (type.equals("find")) {
-            r.find(args[1]);
+            if (args.length >= 3 && args[1].equals("--word")) {
+                r.findWords(Arrays.copyOfRange(args, 2, args.length));
+            } else if (args.length == 3 && args[1].equals("--grep")) {
+                r.findSubstring(args[2]);
+            } else {
+                r.find(args[1]);
+            }
         } else if (type.equals("status")) {
             r.status();
         } else if (type.equals("branch")) {
@@ -63,11 +133,97 @@ public class Main {
             r.reset(args[1]);
         } else if (type.equals("merge")) {
             r.merge(args[1]);
+        } else if (type.equals("diff")) {
+            if (args.length == 1) {
+                r.diff();
+            } else if (args.length == 2 && args[1].equals("--cached")) {
+                r.diffCached();
+            } else if (args.length == 3) {
+                r.diffCommits(args[1], args[2]);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (type.equals("gc")) {
+            if (args.length == 1 || args.length == 2
+                    && args[1].equals("--now")) {
+                r.gc(args.length == 2);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (type.equals("add-remote")) {
+            operands(args, 2);
+            r.addRemote(args[1], args[2]);
+        } else if (type.equals("rm-remote")) {
+            operands(args, 1);
+            r.rmRemote(args[1]);
+        } else if (type.equals("push")) {
+            operands(args, 2);
+            r.push(args[1], args[2]);
+        } else if (type.equals("fetch")) {
+            operands(args, 2);
+            r.fetch(args[1], args[2]);
+        } else if (type.equals("pull")) {
+            operands(args, 2);
+            r.pull(args[1], args[2]);
+        } else if (type.equals("count-objects")) {
+            if (args.length == 2 || args.length == 3) {
+                r.countObjects(args[1], args.length == 3 ? args[2] : null);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        } else if (type.equals("repack")) {
+            r.repack();
         } else {
-            System.out.println("No command with that name exists.");
-            System.exit(0);
+            throw new GitletException("No command with that name exists.");
         }
 
     }
 
+    /** Serve commands for the repository in CWD until stopped, or, given
+     *  "--stop" in ARGS, stop the daemon serving it. */
+    static void daemon(String... args) throws IOException {
+        if (!GITLET.exists()) {
+            throw new GitletException(
+                "Not in an initialized Gitlet directory.");
+        } else if (args.length == 1) {
+            new Daemon().serve();
+        } else if (args.length == 2 && args[1].equals("--stop")) {
+            Client.stop();
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /** Fails unless ARGS has exactly N operands after the command
+     *  name. */
+    static void operands(String[] args, int n) {
+        if (args.length != n + 1) {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /** Returns the number of commits to skip and the largest number to
+     *  show, as given by the options "--skip K" and "-n N" in ARGS after
+     *  the command name.  Fails if there are other operands. */
+    static int[] page(String... args) {
+        int[] result = { 0, Integer.MAX_VALUE };
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                int value = Integer.parseInt(args[i + 1]);
+                if (value < 0) {
+                    throw new NumberFormatException();
+                } else if (args[i].equals("--skip")) {
+                    result[0] = value;
+                } else if (args[i].equals("-n")) {
+                    result[1] = value;
+                } else {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new GitletException("Incorrect operands.");
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** A line-by-line three-way merge of two versions of a file with their
+ *  common ancestor, in the manner of diff3.  Each version is compared
+ *  with the ancestor by Diff.  Runs of ancestor lines that both
+ *  comparisons keep, in step, are stable; between them, a region that
+ *  only one side has changed takes that side's lines, a region both
+ *  sides have changed identically takes either, and any other region is
+ *  a conflict, written as
+ *      <<<<<<< HEAD
+ *      lines of the current version
+ *      =======
+ *      lines of the given version
+ *      >>>>>>>
+ *  Files that look binary, having a NUL byte near their start, are not
+ *  merged by line; the whole file is one conflict.
+ *  @author Marcus Cheung
+ */
+class Merge {
+
+    /** Start of a conflict. */
+    static final byte[] START =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /** Separator of the sides of a conflict. */
+    static final byte[] MIDDLE = "=======\n".getBytes(StandardCharsets.UTF_8);
+    /** End of a conflict. */
+    static final byte[] END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The merge of HEAD and OTHER, two versions of BASE. */
+    Merge(byte[] base, byte[] head, byte[] other) {
+        _texts = new byte[][] { base, head, other };
+        if (Diff.binary(base) || Diff.binary(head) || Diff.binary(other)) {
+            _starts = new int[][] {
+                { 0, base.length }, { 0, head.length }, { 0, other.length }
+            };
+            _ids = new int[][] { { 0 }, { 1 }, { 2 } };
+        } else {
+            _starts = new int[][] {
+                Diff.lineStarts(base), Diff.lineStarts(head),
+                Diff.lineStarts(other)
+            };
+            _ids = Diff.lineIds(_texts, _starts);
+        }
+        merge();
+    }
+
+    /** Returns the merged text. */
+    byte[] result() {
+        return _out.toByteArray();
+    }
+
+    /** Returns true iff the merge has a conflict. */
+    boolean conflicted() {
+        return _conflicts > 0;
+    }
+
+    /** Merge the texts into _out. */
+    private void merge() {
+        int[] base = _ids[0], head = _ids[1], other = _ids[2];
+        int[] toHead = Diff.match(base, head);
+        int[] toOther = Diff.match(base, other);
+        int o = 0, h = 0, t = 0;
+        while (true) {
+            int start = o;
+            while (o < base.length && toHead[o] == h && toOther[o] == t) {
+                o += 1;
+                h += 1;
+                t += 1;
+            }
+            copy(0, start, o);
+            if (o == base.length && h == head.length && t == other.length) {
+                break;
+            }
+            int end = o;
+            while (end < base.length
+                   && (toHead[end] < 0 || toOther[end] < 0)) {
+                end += 1;
+            }
+            int hEnd = end < base.length ? toHead[end] : head.length;
+            int tEnd = end < base.length ? toOther[end] : other.length;
+            mergeRegion(o, end, h, hEnd, t, tEnd);
+            o = end;
+            h = hEnd;
+            t = tEnd;
+        }
+    }
+
+    /** Write the merge of the region BASE[O .. OEND), HEAD[H .. HEND),
+     *  OTHER[T .. TEND), which lies between stable runs. */
+    private void mergeRegion(int o, int oEnd, int h, int hEnd,
+                             int t, int tEnd) {
+        if (same(0, o, oEnd, 1, h, hEnd)) {
+            copy(2, t, tEnd);
+        } else if (same(0, o, oEnd, 2, t, tEnd)
+                   || same(1, h, hEnd, 2, t, tEnd)) {
+            copy(1, h, hEnd);
+        } else {
+            _conflicts += 1;
+            _out.writeBytes(START);
+            copy(1, h, hEnd);
+            _out.writeBytes(MIDDLE);
+            copy(2, t, tEnd);
+            _out.writeBytes(END);
+        }
+    }
+
+    /** Returns true iff lines FROM1 .. TO1 of text T1 equal lines
+     *  FROM2 .. TO2 of text T2. */
+    private boolean same(int t1, int from1, int to1,
+                         int t2, int from2, int to2) {
+        if (to1 - from1 != to2 - from2) {
+            return false;
+        }
+        for (int i = 0; i < to1 - from1; i += 1) {
+            if (_ids[t1][from1 + i] != _ids[t2][from2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write lines FROM .. TO of text T. */
+    private void copy(int t, int from, int to) {
+        int start = _starts[t][from];
+        _out.write(_texts[t], start, _starts[t][to] - start);
+    }
+
+    /** The base, head and other texts. */
+    private final byte[][] _texts;
+    /** Offsets of the lines of each text. */
+    private final int[][] _starts;
+    /** Ids of the lines of each text. */
+    private final int[][] _ids;
+    /** The merged text. */
+    private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+    /** Number of conflicting regions written. */
+    private int _conflicts;
+
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/** What a merge must do to the current snapshot, worked out from the
+ *  trees of the split point, the head and the other branch in one walk,
+ *  Tree.merge, which visits the three trees' entries in order of name
+ *  together and skips any directory that the other branch has not
+ *  changed or that both branches have changed alike.  The plan is the
+ *  paths that remain, in the order of the walk, each with its three
+ *  versions: a path the head has not changed takes the other branch's
+ *  version, and one both have changed, differently, must be merged.
+ *  @author Marcus Cheung
+ */
+class MergePlan {
+
+    /** The plan for merging the tree named OTHER into the tree named
+     *  HEAD, given that named BASE at their split point. */
+    MergePlan(String base, String head, String other) {
+        Tree.merge(base, head, other, _steps::add);
+    }
+
+    /** Returns my steps, in the order of the walk. */
+    List<Step> steps() {
+        return _steps;
+    }
+
+    /** One path to be changed by the merge. */
+    static class Step {
+        /** The step for PATH, whose blobs at the split point, at the
+         *  head and on the other branch are BASE, HEAD and OTHER, each
+         *  null if absent. */
+        Step(String path, String base, String head, String other) {
+            this.path = path;
+            this.base = base;
+            this.head = head;
+            this.other = other;
+        }
+
+        /** Returns true iff the head has not changed my path, which
+         *  then simply takes the other branch's version. */
+        boolean take() {
+            return Objects.equals(head, base);
+        }
+
+        /** Path of the file. */
+        final String path;
+        /** Blob at the split point, or null. */
+        final String base;
+        /** Blob at the head, or null. */
+        final String head;
+        /** Blob on the other branch, or null. */
+        final String other;
+    }
+
+    /** My steps. */
+    private final List<Step> _steps = new ArrayList<>();
+
+}
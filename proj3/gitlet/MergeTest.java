@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Merge.
+ *  @author Marcus Cheung
+ */
+public class MergeTest {
+
+    /** Returns the merge of HEAD and OTHER, versions of BASE. */
+    static Merge merge(String base, String head, String other) {
+        return new Merge(base.getBytes(StandardCharsets.UTF_8),
+                         head.getBytes(StandardCharsets.UTF_8),
+                         other.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the text of the result of M. */
+    static String text(Merge m) {
+        return new String(m.result(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void separateChanges() {
+        Merge m = merge("a\nb\nc\nd\ne\n", "A\nb\nc\nd\ne\n",
+                        "a\nb\nc\nd\nE\n");
+        assertFalse(m.conflicted());
+        assertEquals("A\nb\nc\nd\nE\n", text(m));
+    }
+
+    @Test
+    public void sameChange() {
+        Merge m = merge("a\nb\nc\n", "a\nx\nc\n", "a\nx\nc\n");
+        assertFalse(m.conflicted());
+        assertEquals("a\nx\nc\n", text(m));
+    }
+
+    @Test
+    public void oneSide() {
+        Merge m = merge("a\nb\n", "a\nb\n", "a\nb\nc\n");
+        assertFalse(m.conflicted());
+        assertEquals("a\nb\nc\n", text(m));
+    }
+
+    @Test
+    public void conflict() {
+        Merge m = merge("a\nb\nc\n", "a\nx\nc\n", "a\ny\nc\n");
+        assertTrue(m.conflicted());
+        assertEquals("a\n<<<<<<< HEAD\nx\n=======\ny\n>>>>>>>\nc\n",
+                     text(m));
+    }
+
+    @Test
+    public void binary() {
+        Merge m = merge("a\0b", "a\0c", "a\0d");
+        assertTrue(m.conflicted());
+        assertEquals("<<<<<<< HEAD\na\0c=======\na\0d>>>>>>>\n", text(m));
+    }
+
+}
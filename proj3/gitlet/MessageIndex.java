@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/** The messages of all commits, numbered in the order they were added
+ *  (which is also their order in the commit graph), with an inverted
+ *  index from terms to the commits whose messages contain them.  Terms
+ *  are the words of a message (maximal runs of letters and digits) and
+ *  its trigrams (all substrings of GRAM characters), both lower-cased.
+ *  Queries look up the postings of the terms of the query, intersect
+ *  them, and check the few candidates that remain against the messages.
+ *
+ *  Like IdIndex, the term index covers only the first messages; those
+ *  added since it was written are checked directly, and once there are
+ *  more than TAIL_LIMIT of them the index is rewritten to include them.
+ *
+ *  The directory holds three files.  MESSAGES holds each message as a
+ *  length(4) followed by its UTF-8 bytes; OFFSETS holds the offset(8) of
+ *  each message in MESSAGES; TERMS holds MAGIC, VERSION, the number of
+ *  messages covered, the number of terms, and the offset of a directory,
+ *  then one entry per term:
+ *      term count(4) position(4)*
+ *  with the term written as by Codec, and then the directory: the
+ *  offset(4) of each entry, in order of term.
+ *  @author Marcus Cheung
+ */
+class MessageIndex {
+
+    /** First word of a term index file. */
+    static final int MAGIC = 0x474c4d49;
+    /** Format version of term index files. */
+    static final int VERSION = 1;
+    /** Length of the substrings indexed as trigrams. */
+    static final int GRAM = 3;
+    /** Number of unindexed messages tolerated before the term index is
+     *  rewritten. */
+    static final int TAIL_LIMIT = 256;
+    /** Size of the header of the term index. */
+    private static final int HEADER = 20;
+    /** Kind prefix of word terms. */
+    private static final char WORD = 'w';
+    /** Kind prefix of trigram terms. */
+    private static final char TRIGRAM = 'g';
+
+    /** The index stored in directory DIR. */
+    MessageIndex(File dir) {
+        _messages = Utils.join(dir, "messages");
+        _offsets = Utils.join(dir, "offsets");
+        _terms = Utils.join(dir, "terms");
+    }
+
+    /** Create directory DIR holding an empty index. */
+    static void create(File dir) {
+        dir.mkdir();
+        Utils.writeContents(Utils.join(dir, "messages"), new byte[0]);
+        Utils.writeContents(Utils.join(dir, "offsets"), new byte[0]);
+        new MessageIndex(dir).rebuild();
+    }
+
+    /** Remove every message. */
+    void clear() {
+        Utils.writeContents(_messages, new byte[0]);
+        Utils.writeContents(_offsets, new byte[0]);
+        _messageBuffer = _offsetBuffer = null;
+        rebuild();
+    }
+
+    /** Returns the number of messages. */
+    int size() {
+        return (int) (_offsets.length() / 8);
+    }
+
+    /** Returns message number K. */
+    String message(int k) {
+        if (_messageBuffer == null) {
+            _messageBuffer = map(_messages);
+            _offsetBuffer = map(_offsets);
+        }
+        int start = (int) _offsetBuffer.getLong(8 * k);
+        byte[] bytes = new byte[_messageBuffer.getInt(start)];
+        _messageBuffer.get(start + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Add MSGS as the next messages. */
+    void add(List<String> msgs) {
+        long end = _messages.length();
+        try (DataOutputStream text = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_messages, true)));
+             DataOutputStream offsets = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_offsets, true)))) {
+            for (String msg : msgs) {
+                byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+                offsets.writeLong(end);
+                text.writeInt(bytes.length);
+                text.write(bytes);
+                end += 4 + bytes.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _messageBuffer = _offsetBuffer = null;
+        if (size() - covered() > TAIL_LIMIT) {
+            rebuild();
+        }
+    }
+
+    /** Discard any partial offset left at the end of the offsets file by
+     *  an interrupted add. */
+    void repair() {
+        long whole = 8L * size();
+        if (_offsets.length() > whole) {
+            Journal.truncate(_offsets, whole);
+        }
+        _messageBuffer = _offsetBuffer = null;
+    }
+
+    /** Returns the numbers of the messages equal to MSG, in order. */
+    List<Integer> exact(String msg) {
+        TreeSet<String> terms = wordTerms(msg);
+        if (terms.isEmpty()) {
+            terms = trigramTerms(msg);
+        }
+        return search(terms, m -> m.equals(msg));
+    }
+
+    /** Returns the numbers of the messages containing every word of
+     *  WORDS as a word, ignoring case, in order. */
+    List<Integer> withWords(String... words) {
+        TreeSet<String> terms = new TreeSet<>();
+        for (String w : words) {
+            terms.addAll(wordTerms(w));
+        }
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return search(terms, m -> wordTerms(m).containsAll(terms));
+    }
+
+    /** Returns the numbers of the messages that contain TEXT, in
+     *  order. */
+    List<Integer> containing(String text) {
+        return search(trigramTerms(text), m -> m.contains(text));
+    }
+
+    /** Returns the numbers of the messages that satisfy MATCH, in order,
+     *  where each of them must contain all of TERMS.  If TERMS is empty,
+     *  every message is checked. */
+    private List<Integer> search(TreeSet<String> terms,
+                                 Predicate<String> match) {
+        List<Integer> result = new ArrayList<>();
+        int covered = covered();
+        int[] candidates = null;
+        if (!terms.isEmpty()) {
+            for (String t : terms) {
+                int[] p = postings(t);
+                candidates = candidates == null ? p
+                    : intersect(candidates, p);
+                if (candidates.length == 0) {
+                    break;
+                }
+            }
+            for (int k : candidates) {
+                if (match.test(message(k))) {
+                    result.add(k);
+                }
+            }
+        } else {
+            covered = 0;
+        }
+        for (int k = covered; k < size(); k += 1) {
+            if (match.test(message(k))) {
+                result.add(k);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the elements common to the sorted arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n, i, j;
+        for (n = i = j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the word terms of MSG. */
+    static TreeSet<String> wordTerms(String msg) {
+        TreeSet<String> result = new TreeSet<>();
+        String lower = msg.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i += 1) {
+            boolean inWord = i < lower.length()
+                && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                result.add(WORD + lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the trigram terms of MSG. */
+    static TreeSet<String> trigramTerms(String msg) {
+        TreeSet<String> result = new TreeSet<>();
+        String lower = msg.toLowerCase();
+        for (int i = 0; i + GRAM <= lower.length(); i += 1) {
+            result.add(TRIGRAM + lower.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    /** Returns the numbers of the indexed messages containing TERM, in
+     *  order. */
+    private int[] postings(String term) {
+        ByteBuffer buf = terms().duplicate();
+        int lo = 0, hi = buf.getInt(12);
+        int dir = buf.getInt(16);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            buf.position(buf.getInt(dir + 4 * mid));
+            int c = Codec.readString(buf).compareTo(term);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid;
+            } else {
+                int[] result = new int[buf.getInt()];
+                buf.asIntBuffer().get(result);
+                return result;
+            }
+        }
+        return new int[0];
+    }
+
+    /** Returns the number of messages covered by the term index. */
+    private int covered() {
+        return terms().getInt(8);
+    }
+
+    /** Rewrite the term index to cover every message.  The existing
+     *  entries are merged, in order, with those of the messages added
+     *  since it was written. */
+    void rebuild() {
+        int covered = _terms.exists() ? covered() : 0;
+        TreeMap<String, List<Integer>> added = new TreeMap<>();
+        for (int k = covered; k < size(); k += 1) {
+            String msg = message(k);
+            for (TreeSet<String> terms
+                     : List.of(wordTerms(msg), trigramTerms(msg))) {
+                for (String t : terms) {
+                    added.computeIfAbsent(t, x -> new ArrayList<>()).add(k);
+                }
+            }
+        }
+        File tmp = new File(_terms.getPath() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(new byte[HEADER]);
+            ByteBuffer old = covered == 0 ? null : terms().duplicate();
+            int oldCount = old == null ? 0 : old.getInt(12);
+            int[] entries = new int[oldCount + added.size()];
+            Iterator<Map.Entry<String, List<Integer>>> more =
+                added.entrySet().iterator();
+            Map.Entry<String, List<Integer>> next =
+                more.hasNext() ? more.next() : null;
+            for (int k = 0; k < oldCount || next != null; count += 1) {
+                entries[count] = out.size();
+                String term = null;
+                int[] postings = new int[0];
+                if (k < oldCount) {
+                    old.position(old.getInt(old.getInt(16) + 4 * k));
+                    term = Codec.readString(old);
+                }
+                if (term != null
+                    && (next == null || term.compareTo(next.getKey()) <= 0)) {
+                    postings = new int[old.getInt()];
+                    old.asIntBuffer().get(postings);
+                    k += 1;
+                }
+                if (next != null
+                    && (term == null || next.getKey().compareTo(term) <= 0)) {
+                    term = next.getKey();
+                    int n = postings.length;
+                    postings = Arrays.copyOf(postings,
+                                             n + next.getValue().size());
+                    for (int p : next.getValue()) {
+                        postings[n] = p;
+                        n += 1;
+                    }
+                    next = more.hasNext() ? more.next() : null;
+                }
+                Codec.writeString(out, term);
+                out.writeInt(postings.length);
+                for (int p : postings) {
+                    out.writeInt(p);
+                }
+            }
+            int dir = out.size();
+            for (int k = 0; k < count; k += 1) {
+                out.writeInt(entries[k]);
+            }
+            out.flush();
+            try (RandomAccessFile f = new RandomAccessFile(tmp, "rw")) {
+                f.writeInt(MAGIC);
+                f.writeInt(VERSION);
+                f.writeInt(size());
+                f.writeInt(count);
+                f.writeInt(dir);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _termBuffer = null;
+        if (!tmp.renameTo(_terms)) {
+            throw new IllegalArgumentException("could not replace "
+                                               + _terms);
+        }
+    }
+
+    /** Returns the contents of the term index, mapping it on first
+     *  use. */
+    private ByteBuffer terms() {
+        if (_termBuffer == null) {
+            _termBuffer = map(_terms);
+            if (_termBuffer.limit() < HEADER
+                || _termBuffer.getInt(0) != MAGIC
+                || _termBuffer.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad message index");
+            }
+        }
+        return _termBuffer;
+    }
+
+    /** Returns the contents of FILE, mapped read-only. */
+    private static ByteBuffer map(File file) {
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            return f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                      0, f.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** File holding the messages. */
+    private final File _messages;
+    /** File holding the offsets of the messages. */
+    private final File _offsets;
+    /** File holding the term index. */
+    private final File _terms;
+    /** Contents of _messages, or null if not yet mapped. */
+    private ByteBuffer _messageBuffer;
+    /** Contents of _offsets, or null if not yet mapped. */
+    private ByteBuffer _offsetBuffer;
+    /** Contents of _terms, or null if not yet mapped. */
+    private ByteBuffer _termBuffer;
+
+}
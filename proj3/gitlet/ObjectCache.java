@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/** A bounded cache of decoded objects keyed by id, evicting the least
+ *  recently used entry when full.  Counts hits and misses so that tests
+ *  can check how often the underlying store is consulted.
+ *  @author Marcus Cheung
+ */
+class ObjectCache<V> {
+
+    /** A cache holding at most CAPACITY objects. */
+    ObjectCache(int capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<String, V>(capacity, LOAD, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> e) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Returns the object named ID, computing it with LOADER and
+     *  remembering it if it is not already cached.  LOADER runs without
+     *  the lock, so that threads may load different objects at once; if
+     *  two load the same object, the first one cached is kept. */
+    V get(String id, Function<String, V> loader) {
+        synchronized (this) {
+            V result = _entries.get(id);
+            if (result != null) {
+                _hits += 1;
+                return result;
+            }
+            _misses += 1;
+        }
+        V result = loader.apply(id);
+        synchronized (this) {
+            V cached = _entries.putIfAbsent(id, result);
+            return cached == null ? result : cached;
+        }
+    }
+
+    /** Remember VALUE as the object named ID. */
+    synchronized void put(String id, V value) {
+        _entries.put(id, value);
+    }
+
+    /** Forget all cached objects, keeping the counts. */
+    synchronized void clear() {
+        _entries.clear();
+    }
+
+    /** Returns the number of lookups answered from the cache. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that had to load their object. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Returns the number of objects currently cached. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Load factor of the underlying table. */
+    private static final float LOAD = 0.75f;
+    /** Maximum number of entries. */
+    private final int _capacity;
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<String, V> _entries;
+    /** Count of hits. */
+    private long _hits;
+    /** Count of misses. */
+    private long _misses;
+
+}
@@ -0,0 +1,38 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of ObjectCache.
+ *  @author Marcus Cheung
+ */
+public class ObjectCacheTest {
+
+    @Test
+    public void hitsAndMisses() {
+        ObjectCache<String> cache = new ObjectCache<>(2);
+        assertEquals("A", cache.get("a", String::toUpperCase));
+        assertEquals("A", cache.get("a", id -> "wrong"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        cache.clear();
+        assertEquals("A", cache.get("a", String::toUpperCase));
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ObjectCache<String> cache = new ObjectCache<>(2);
+        cache.get("a", String::toUpperCase);
+        cache.get("b", String::toUpperCase);
+        cache.get("a", String::toUpperCase);
+        cache.get("c", String::toUpperCase);
+        assertEquals(2, cache.size());
+        long misses = cache.misses();
+        cache.get("a", String::toUpperCase);
+        assertEquals(misses, cache.misses());
+        cache.get("b", String::toUpperCase);
+        assertEquals(misses + 1, cache.misses());
+    }
+
+}
@@ -0,0 +1,54 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/** A collection of objects, each named by a SHA-1 id.  Unless stored
+ *  with an explicit id, an object is named by the hash of its contents.
+ *  @author Marcus Cheung
+ */
+interface ObjectStore {
+
+    /** Returns true iff this store holds an object named ID. */
+    boolean contains(String id);
+
+    /** Returns the contents of the object named ID.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    byte[] read(String id);
+
+    /** Stores CONTENTS, if not already present, and returns its id. */
+    String write(byte[] contents);
+
+    /** Stores CONTENTS under the name ID, replacing any object of that
+     *  name. */
+    void write(String id, byte[] contents);
+
+    /** Returns the ids of all objects in this store, in sorted order. */
+    List<String> ids();
+
+    /** Returns a stream over the contents of the object named ID.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    InputStream open(String id);
+
+    /** Stores the contents of SOURCE, if not already present, and returns
+     *  its id.  SOURCE is streamed, so it need not fit in memory. */
+    String write(File source);
+
+    /** Write the contents of the object named ID to TARGET, creating or
+     *  replacing it and any missing directories above it, without
+     *  holding the whole object in memory. */
+    default void copyTo(String id, File target) {
+        target.getParentFile().mkdirs();
+        try (InputStream in = open(id)) {
+            Files.copy(in, target.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** A pack: many objects in one file, some stored as deltas against an
+ *  earlier object of the same pack, plus a sorted index file giving the
+ *  offset of each object.
+ *
+ *  The pack file NAME.pack holds MAGIC, VERSION, and then one entry per
+ *  object:
+ *      FULL  length(4) contents
+ *      DELTA baseOffset(8) length(4) delta
+ *  The index file NAME.idx holds MAGIC, VERSION, a fan-out table of 256
+ *  counts (entry i being the number of ids whose first byte is <= i), and
+ *  then one id(20) offset(8) record per object, sorted by id.
+ *  @author Marcus Cheung
+ */
+class Pack {
+
+    /** First word of pack and index files. */
+    static final int MAGIC = 0x474c504b;
+    /** Format version of pack and index files. */
+    static final int VERSION = 1;
+    /** Entry tag for an object stored whole. */
+    private static final byte FULL = 0;
+    /** Entry tag for an object stored as a delta. */
+    private static final byte DELTA = 1;
+    /** Number of preceding objects tried as delta bases. */
+    private static final int WINDOW = 10;
+    /** Longest allowed chain of deltas. */
+    private static final int MAX_DEPTH = 10;
+    /** Size of the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Size of the index header: magic, version, and fan-out table. */
+    private static final int IDX_HEADER = 4 * (2 + FANOUT);
+    /** Size of one index record. */
+    private static final int IDX_RECORD = Utils.UID_BYTES + 8;
+
+    /** The pack whose data file is PACKFILE.  Its index is the file
+     *  of the same name with suffix .idx. */
+    Pack(File packFile) {
+        _pack = packFile;
+        String name = packFile.getName();
+        _idx = new File(packFile.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length())
+                        + ".idx");
+    }
+
+    /** Returns my data file. */
+    File packFile() {
+        return _pack;
+    }
+
+    /** Returns my index file. */
+    File indexFile() {
+        return _idx;
+    }
+
+    /** Returns true iff I hold the object named ID. */
+    boolean contains(String id) {
+        return offset(id) >= 0;
+    }
+
+    /** Returns the contents of the object named ID, or null if I do not
+     *  hold it. */
+    byte[] read(String id) {
+        long off = offset(id);
+        if (off < 0) {
+            return null;
+        }
+        long start = Trace.start();
+        try (RandomAccessFile in = new RandomAccessFile(_pack, "r")) {
+            byte[] result = readAt(in, off, 0);
+            Trace.count("pack.read", result.length, start);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of all my objects, in sorted order. */
+    List<String> ids() {
+        ByteBuffer idx = index().duplicate();
+        int n = count(idx);
+        List<String> result = new ArrayList<>(n);
+        byte[] id = new byte[Utils.UID_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            idx.position(IDX_HEADER + i * IDX_RECORD);
+            idx.get(id);
+            result.add(Utils.toHex(id));
+        }
+        return result;
+    }
+
+    /** Returns the offset in my pack file of the entry for ID, or -1 if
+     *  there is none. */
+    private long offset(String id) {
+        ByteBuffer idx = index().duplicate();
+        byte[] key = Utils.toBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(4 * (2 + first - 1));
+        int hi = idx.getInt(4 * (2 + first)) - 1;
+        byte[] probe = new byte[Utils.UID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            idx.position(IDX_HEADER + mid * IDX_RECORD);
+            idx.get(probe);
+            int c = Arrays.compareUnsigned(probe, key);
+            if (c == 0) {
+                return idx.getLong();
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of records in the index IDX. */
+    private static int count(ByteBuffer idx) {
+        return idx.getInt(4 * (2 + FANOUT - 1));
+    }
+
+    /** Returns my index, mapping it into memory on first use.  Callers
+     *  that move its position work on a duplicate, so that a pack may be
+     *  read from several threads. */
+    private synchronized MappedByteBuffer index() {
+        if (_index == null) {
+            try (RandomAccessFile f = new RandomAccessFile(_idx, "r")) {
+                _index = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                            0, f.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_index.getInt(0) != MAGIC || _index.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad pack index");
+            }
+        }
+        return _index;
+    }
+
+    /** Returns the contents of the entry at OFF in IN, which is DEPTH
+     *  deltas away from the object originally requested. */
+    private static byte[] readAt(RandomAccessFile in, long off, int depth)
+        throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("delta chain too long");
+        }
+        in.seek(off);
+        byte tag = in.readByte();
+        long base = tag == DELTA ? in.readLong() : -1;
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        if (tag == FULL) {
+            return data;
+        }
+        return Delta.apply(readAt(in, base, depth + 1), data);
+    }
+
+    /** Write a new pack into DIR holding the objects named IDS, whose
+     *  contents are taken from SRC, and return it.  Objects are tried as
+     *  deltas against the objects just before them in IDS, so similar
+     *  objects should be adjacent. */
+    static Pack write(File dir, List<String> ids, ObjectStore src) {
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        String name = "pack-" + Utils.sha1(String.join("", sorted));
+        File tmpPack = Utils.join(dir, name + ".pack.tmp");
+        long[] offsets = new long[ids.size()];
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmpPack)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long pos = 2 * 4;
+            ArrayDeque<Entry> window = new ArrayDeque<>();
+            for (int i = 0; i < ids.size(); i += 1) {
+                byte[] contents = src.read(ids.get(i));
+                Entry best = null;
+                byte[] bestDelta = null;
+                for (Entry e : window) {
+                    if (e.depth >= MAX_DEPTH) {
+                        continue;
+                    }
+                    byte[] d = Delta.create(e.contents, contents);
+                    if (d.length < contents.length / 2
+                        && (bestDelta == null
+                            || d.length < bestDelta.length)) {
+                        best = e;
+                        bestDelta = d;
+                    }
+                }
+                offsets[i] = pos;
+                if (best == null) {
+                    out.writeByte(FULL);
+                    out.writeInt(contents.length);
+                    out.write(contents);
+                    pos += 1 + 4 + contents.length;
+                } else {
+                    out.writeByte(DELTA);
+                    out.writeLong(best.offset);
+                    out.writeInt(bestDelta.length);
+                    out.write(bestDelta);
+                    pos += 1 + 8 + 4 + bestDelta.length;
+                }
+                window.addFirst(new Entry(contents, offsets[i],
+                                          best == null ? 0
+                                          : best.depth + 1));
+                if (window.size() > WINDOW) {
+                    window.removeLast();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Pack result = new Pack(Utils.join(dir, name + ".pack"));
+        writeIndex(Utils.join(dir, name + ".idx.tmp"), ids, offsets);
+        if (!tmpPack.renameTo(result._pack)
+            || !Utils.join(dir, name + ".idx.tmp").renameTo(result._idx)) {
+            throw new IllegalArgumentException("could not install pack");
+        }
+        return result;
+    }
+
+    /** Write an index to FILE for objects IDS at the corresponding
+     *  OFFSETS of a pack. */
+    private static void writeIndex(File file, List<String> ids,
+                                   long[] offsets) {
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> ids.get(a).compareTo(ids.get(b)));
+        int[] fanout = new int[FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (int i : order) {
+                out.write(Utils.toBytes(ids.get(i)));
+                out.writeLong(offsets[i]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An object recently written to a pack, kept as a delta candidate. */
+    private static class Entry {
+        /** An object with the given CONTENTS, written at OFFSET, at the
+         *  end of a chain of DEPTH deltas. */
+        Entry(byte[] contents, long offset, int depth) {
+            this.contents = contents;
+            this.offset = offset;
+            this.depth = depth;
+        }
+
+        /** Contents of the object. */
+        private final byte[] contents;
+        /** Offset of its entry in the pack. */
+        private final long offset;
+        /** Length of its delta chain. */
+        private final int depth;
+    }
+
+    /** My data file. */
+    private final File _pack;
+    /** My index file. */
+    private final File _idx;
+    /** My index, once mapped. */
+    private MappedByteBuffer _index;
+
+}
@@ -0,0 +1,51 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Pack.
+ *  @author Marcus Cheung
+ */
+public class PackTest {
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File dir = Files.createTempDirectory("pack").toFile();
+        File loose = new File(dir, "loose");
+        loose.mkdir();
+        ObjectStore src = new LooseStore(loose);
+        Random random = new Random(7);
+        byte[] text = new byte[10000];
+        random.nextBytes(text);
+        List<String> ids = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int k = 0; k < 30; k += 1) {
+            byte[] version = k % 10 == 9 ? new byte[k + 1]
+                : Arrays.copyOf(text, text.length + k);
+            version[k] = (byte) k;
+            ids.add(src.write(version));
+            contents.add(version);
+        }
+        Pack pack = Pack.write(dir, ids, src);
+        assertTrue(pack.packFile().length() < 10 * text.length);
+        Pack reopened = new Pack(pack.packFile());
+        for (int k = 0; k < ids.size(); k += 1) {
+            assertTrue(reopened.contains(ids.get(k)));
+            assertArrayEquals(contents.get(k), reopened.read(ids.get(k)));
+        }
+        assertFalse(reopened.contains(Utils.sha1("absent")));
+        List<String> all = new ArrayList<>(reopened.ids());
+        all.sort(null);
+        ids.sort(null);
+        assertEquals(ids, all);
+    }
+
+}
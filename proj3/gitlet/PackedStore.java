@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/** An object store made of loose objects together with any number of
+ *  packs, and with large objects kept in chunks.  Lookups try the loose
+ *  objects first, then the chunked ones and then each pack; new objects
+ *  are written loose until the next repack, unless they hold at least
+ *  ChunkStore.THRESHOLD bytes, in which case they are chunked, and stay
+ *  so.
+ *  @author Marcus Cheung
+ */
+class PackedStore implements ObjectStore {
+
+    /** Largest object, in bytes, that repack will put in a pack. */
+    static final long MAX_PACKED = 1 << 24;
+
+    /** A store whose loose objects are in LOOSE, whose packs are in
+     *  the directory PACKS and whose chunked objects are in CHUNKED. */
+    PackedStore(LooseStore loose, File packs, ChunkStore chunked) {
+        _loose = loose;
+        _packDir = packs;
+        _chunked = chunked;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        if (_loose.contains(id) || _chunked.contains(id)) {
+            return true;
+        }
+        for (Pack p : packs()) {
+            if (p.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] read(String id) {
+        if (_loose.contains(id)) {
+            return _loose.read(id);
+        } else if (_chunked.contains(id)) {
+            try (InputStream in = _chunked.open(id)) {
+                return in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Pack p : packs()) {
+            byte[] result = p.read(id);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("no object " + id);
+    }
+
+    @Override
+    public String write(byte[] contents) {
+        String id = Utils.sha1(contents);
+        if (!contains(id)) {
+            _loose.write(id, contents);
+        }
+        return id;
+    }
+
+    @Override
+    public void write(String id, byte[] contents) {
+        _loose.write(id, contents);
+    }
+
+    @Override
+    public InputStream open(String id) {
+        if (_loose.contains(id)) {
+            return _loose.open(id);
+        } else if (_chunked.contains(id)) {
+            return _chunked.open(id);
+        }
+        return new ByteArrayInputStream(read(id));
+    }
+
+    @Override
+    public String write(File source) {
+        try (InputStream in = new FileInputStream(source)) {
+            return write(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the contents read from SOURCE, to its end, and return their
+     *  id: chunked if there are at least ChunkStore.THRESHOLD bytes of
+     *  them, and loose otherwise. */
+    String write(InputStream source) {
+        byte[] head;
+        try {
+            head = source.readNBytes(ChunkStore.THRESHOLD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        InputStream all =
+            new SequenceInputStream(new ByteArrayInputStream(head), source);
+        if (head.length < ChunkStore.THRESHOLD) {
+            return _loose.write(all);
+        }
+        return _chunked.write(all);
+    }
+
+    @Override
+    public List<String> ids() {
+        Set<String> all = new TreeSet<>(_loose.ids());
+        all.addAll(_chunked.manifests().ids());
+        for (Pack p : packs()) {
+            all.addAll(p.ids());
+        }
+        return new ArrayList<>(all);
+    }
+
+    /** Fold all loose objects and existing packs into a single new pack,
+     *  then remove the loose copies and the old packs.  Objects named in
+     *  ORDER come first, in that order, so that similar objects listed
+     *  together are stored as deltas of one another; the rest follow in
+     *  sorted order.  Loose objects larger than MAX_PACKED bytes are left
+     *  alone, so that packing never needs a large object in memory. */
+    void repack(List<String> order) {
+        repack(order, id -> true);
+    }
+
+    /** Repack as for repack(ORDER), but drop the objects of existing
+     *  packs that do not satisfy KEEP.  KEEP is asked about the objects
+     *  of each pack in sorted order. */
+    void repack(List<String> order, Predicate<String> keep) {
+        List<Pack> old = packs();
+        Set<String> packable = new TreeSet<>();
+        for (Pack p : old) {
+            for (String id : p.ids()) {
+                if (keep.test(id)) {
+                    packable.add(id);
+                }
+            }
+        }
+        List<String> packed = new ArrayList<>();
+        for (String id : _loose.ids()) {
+            if (!packable.contains(id) && _loose.sizeAtMost(id, MAX_PACKED)) {
+                packable.add(id);
+                packed.add(id);
+            }
+        }
+        List<String> all = new ArrayList<>(packable);
+        if (all.isEmpty()) {
+            for (Pack p : old) {
+                p.packFile().delete();
+                p.indexFile().delete();
+            }
+            _packs = null;
+            return;
+        }
+        Set<String> ids = new LinkedHashSet<>();
+        Set<String> present = new HashSet<>(all);
+        for (String id : order) {
+            if (present.contains(id)) {
+                ids.add(id);
+            }
+        }
+        ids.addAll(all);
+        _packDir.mkdirs();
+        Pack pack = Pack.write(_packDir, new ArrayList<>(ids), this);
+        for (Pack p : old) {
+            if (!p.packFile().equals(pack.packFile())) {
+                p.packFile().delete();
+                p.indexFile().delete();
+            }
+        }
+        for (String id : packed) {
+            _loose.delete(id);
+        }
+        _packs = null;
+    }
+
+    /** Forget my list of packs, so that it is read again on next use. */
+    synchronized void refresh() {
+        _packs = null;
+    }
+
+    /** Returns my loose objects. */
+    LooseStore loose() {
+        return _loose;
+    }
+
+    /** Returns my chunked objects. */
+    ChunkStore chunked() {
+        return _chunked;
+    }
+
+    /** Returns my packs, reading the pack directory on first use. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(_packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".pack")) {
+                        _packs.add(new Pack(Utils.join(_packDir, name)));
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** My loose objects. */
+    private final LooseStore _loose;
+    /** Directory holding my packs. */
+    private final File _packDir;
+    /** My chunked objects. */
+    private final ChunkStore _chunked;
+    /** My packs, or null if not yet read. */
+    private List<Pack> _packs;
+
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** Runs independent per-file tasks, such as hashing working files or
+ *  writing blobs into the working tree, on a bounded pool of threads.
+ *  The pool has jobs() threads, which is the value of the environment
+ *  variable GITLET_JOBS if that is a positive integer and otherwise the
+ *  number of processors, but at least MIN_JOBS, since the tasks mostly
+ *  wait on I/O.
+ *
+ *  Results and errors are reported as if the tasks had run one after
+ *  another in order: if several fail, the failure reported is that of
+ *  the first in order.  Tasks not yet started when it is reported are
+ *  cancelled, and those already running are allowed to finish, so no
+ *  file is left half written.
+ *  @author Marcus Cheung
+ */
+class Parallel {
+
+    /** Name of the environment variable limiting concurrency. */
+    static final String JOBS_VARIABLE = "GITLET_JOBS";
+    /** Fewest threads used by default. */
+    static final int MIN_JOBS = 4;
+
+    /** A task on one item that may fail with an IOException. */
+    interface Task<S, T> {
+        /** Returns the result of this task on ITEM. */
+        T apply(S item) throws IOException;
+    }
+
+    /** A task on one item that has no result. */
+    interface Action<S> {
+        /** Perform this action on ITEM. */
+        void accept(S item) throws IOException;
+    }
+
+    /** Returns the number of threads to use. */
+    static int jobs() {
+        String value = System.getenv(JOBS_VARIABLE);
+        if (value != null) {
+            try {
+                int jobs = Integer.parseInt(value.trim());
+                if (jobs > 0) {
+                    return jobs;
+                }
+            } catch (NumberFormatException excp) {
+                /* Fall through to the default. */
+            }
+        }
+        return Math.max(MIN_JOBS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Returns the results of applying TASK to each of ITEMS, in the
+     *  order of ITEMS. */
+    static <S, T> List<T> map(List<S> items, Task<S, T> task)
+        throws IOException {
+        List<T> result = new ArrayList<>(items.size());
+        int jobs = Math.min(jobs(), items.size());
+        if (jobs <= 1) {
+            for (S item : items) {
+                result.add(task.apply(item));
+            }
+            return result;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<Future<T>> futures = new ArrayList<>(items.size());
+        try {
+            for (S item : items) {
+                futures.add(pool.submit(() -> task.apply(item)));
+            }
+            for (Future<T> f : futures) {
+                result.add(f.get());
+            }
+            return result;
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<T> f : futures) {
+                f.cancel(false);
+            }
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Apply ACTION to each of ITEMS. */
+    static <S> void run(List<S> items, Action<S> action) throws IOException {
+        map(items, item -> {
+            action.accept(item);
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+
+/** Changed-path Bloom filters: for each commit in the commit graph, by
+ *  position, a Bloom filter of the paths whose contents differ between
+ *  the commit and its first parent (or, for a root, the empty tree),
+ *  together with every directory above them.  A path absent from a
+ *  commit's filter was certainly not changed by it, so a path-limited
+ *  log need look inside only the few commits whose filters might hold
+ *  the path.
+ *
+ *  Each filter has BITS_PER_PATH bits per path, rounded up to whole
+ *  words, and a path sets PROBES of them, chosen by double hashing of a
+ *  64-bit hash of its UTF-8 bytes.  A commit that changes more than
+ *  MAX_PATHS paths gets no filter and might have changed any path.
+ *
+ *  Like the message index, the filters are kept in two files in DIR.
+ *  FILTERS holds the filters, each as
+ *      words(4) word(8)*
+ *  with words 0 for a commit without a filter; OFFSETS holds the
+ *  offset(8) of each in FILTERS, in order of position.  Filters are
+ *  computed and appended by update, for the commits added to the graph
+ *  since, and discarded by clear when the graph is renumbered.
+ *  @author Marcus Cheung
+ */
+class PathFilters {
+
+    /** Bits of a filter per path. */
+    static final int BITS_PER_PATH = 10;
+    /** Bits set in a filter by each path. */
+    static final int PROBES = 7;
+    /** Most paths a commit may change and still get a filter. */
+    static final int MAX_PATHS = 512;
+
+    /** The filters kept in directory DIR for the commits of GRAPH. */
+    PathFilters(File dir, CommitGraph graph) {
+        _filters = Utils.join(dir, "filters");
+        _offsets = Utils.join(dir, "offsets");
+        _graph = graph;
+    }
+
+    /** Returns the number of commits with filters. */
+    int size() {
+        return (int) (_offsets.length() / 8);
+    }
+
+    /** Remove every filter. */
+    void clear() {
+        _filters.delete();
+        _offsets.delete();
+        _filterBuffer = _offsetBuffer = null;
+    }
+
+    /** Compute and write the filters of the commits of the graph that
+     *  have none. */
+    void update() {
+        int size = size();
+        if (size >= _graph.size()) {
+            return;
+        }
+        _filters.getParentFile().mkdirs();
+        if (_offsets.length() > 8L * size) {
+            Journal.truncate(_offsets, 8L * size);
+        }
+        long end = _filters.length();
+        try (DataOutputStream offsets = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_offsets, true)));
+             DataOutputStream filters = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(_filters, true)))) {
+            for (int pos = size; pos < _graph.size(); pos += 1) {
+                long[] words = filter(changedPaths(pos));
+                offsets.writeLong(end);
+                filters.writeInt(words.length);
+                for (long w : words) {
+                    filters.writeLong(w);
+                }
+                end += 4 + 8L * words.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _filterBuffer = _offsetBuffer = null;
+    }
+
+    /** Returns false if the commit at position POS certainly did not
+     *  change PATH, a file or directory.  Commits without filters might
+     *  have. */
+    boolean mightChange(int pos, String path) {
+        if (_filterBuffer == null) {
+            _filterBuffer = map(_filters);
+            _offsetBuffer = map(_offsets);
+        }
+        if (pos >= _offsetBuffer.limit() / 8) {
+            return true;
+        }
+        int start = (int) _offsetBuffer.getLong(8 * pos);
+        int words = _filterBuffer.getInt(start);
+        if (words == 0) {
+            return true;
+        }
+        long bits = 64L * words;
+        long h = hash(path);
+        for (int i = 0; i < PROBES; i += 1) {
+            long bit = probe(h, i, bits);
+            long w = _filterBuffer.getLong(start + 4 + 8 * (int) (bit / 64));
+            if ((w & (1L << (bit % 64))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the paths changed by the commit at position POS, with the
+     *  directories above them. */
+    private TreeSet<String> changedPaths(int pos) {
+        int parent = _graph.parent1(pos);
+        String from = parent == CommitGraph.NONE ? null
+            : Commit.read(_graph.id(parent)).getTree();
+        String to = Commit.read(_graph.id(pos)).getTree();
+        TreeSet<String> result = new TreeSet<>();
+        for (String path : Tree.diff(from, to).keySet()) {
+            result.add(path);
+            for (int k = path.indexOf(Tree.SEPARATOR); k >= 0;
+                 k = path.indexOf(Tree.SEPARATOR, k + 1)) {
+                result.add(path.substring(0, k));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the words of the filter holding PATHS, or none if there
+     *  are more than MAX_PATHS of them. */
+    private static long[] filter(TreeSet<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            return new long[0];
+        }
+        long[] words =
+            new long[Math.max(1, (BITS_PER_PATH * paths.size() + 63) / 64)];
+        long bits = 64L * words.length;
+        for (String path : paths) {
+            long h = hash(path);
+            for (int i = 0; i < PROBES; i += 1) {
+                long bit = probe(h, i, bits);
+                words[(int) (bit / 64)] |= 1L << (bit % 64);
+            }
+        }
+        return words;
+    }
+
+    /** Returns the Ith of the bits, of BITS, set by a path whose hash
+     *  is H. */
+    private static long probe(long h, int i, long bits) {
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        return Integer.toUnsignedLong(h1 + i * h2) % bits;
+    }
+
+    /** Returns a 64-bit hash of PATH: FNV-1a of its UTF-8 bytes, mixed by
+     *  the finalizer of MurmurHash3. */
+    static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Returns the contents of FILE, mapped read-only, or nothing if
+     *  there is no FILE. */
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            return f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                      0, f.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** File holding the filters. */
+    private final File _filters;
+    /** File holding the offsets of the filters. */
+    private final File _offsets;
+    /** The commit graph. */
+    private final CommitGraph _graph;
+    /** Contents of _filters, or null if not yet mapped. */
+    private ByteBuffer _filterBuffer;
+    /** Contents of _offsets, or null if not yet mapped. */
+    private ByteBuffer _offsetBuffer;
+
+}
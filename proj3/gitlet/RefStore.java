@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The branches of a repository and its current branch.  Each branch is
+ *  stored either as a loose ref, a file in the heads directory holding
+ *  its head commit's id, or as a line "ID NAME" of the packed-refs file;
+ *  a loose ref overrides a packed one of the same name.  Loose refs are
+ *  named by the URL encoding of the branch name, so any name is a valid
+ *  file name.  The HEAD file holds the name of the current branch.
+ *
+ *  Changing a branch rewrites only its own loose ref.  All files are
+ *  replaced by renaming a fully written temporary file over them, so a
+ *  crash leaves each either old or new.  The refs are read from disk at
+ *  most once per command; changes update that snapshot and are written
+ *  through immediately.
+ *  @author Marcus Cheung
+ */
+class RefStore {
+
+    /** Suffix of temporary files, which no encoded branch name has. */
+    private static final String TMP = "~";
+
+    /** The refs whose loose refs are in HEADS, whose packed refs are in
+     *  PACKED, and whose current branch is named in HEAD. */
+    RefStore(File heads, File packed, File head) {
+        _heads = heads;
+        _packed = packed;
+        _headFile = head;
+    }
+
+    /** Create empty refs in HEADS and PACKED, with CURRENT named as the
+     *  current branch in HEAD. */
+    static void create(File heads, File packed, File head, String current) {
+        heads.mkdirs();
+        replace(packed, "");
+        replace(head, current + "\n");
+    }
+
+    /** Returns a read-only view of the map from branch names to the ids
+     *  of their head commits, in order of name. */
+    Map<String, String> branches() {
+        return Collections.unmodifiableMap(load());
+    }
+
+    /** Returns the name of the current branch. */
+    String current() {
+        if (_current == null) {
+            _current = Utils.readContentsAsString(_headFile).trim();
+        }
+        return _current;
+    }
+
+    /** Returns the id of the head commit of the current branch. */
+    String head() {
+        return load().get(current());
+    }
+
+    /** Make NAME the current branch. */
+    void setCurrent(String name) {
+        _current = name;
+        replace(_headFile, name + "\n");
+    }
+
+    /** Make ID the head of branch NAME, creating it if needed. */
+    void put(String name, String id) {
+        load().put(name, id);
+        replace(loose(name), id + "\n");
+    }
+
+    /** Delete branch NAME. */
+    void remove(String name) {
+        load().remove(name);
+        loose(name).delete();
+        if (readPacked().containsKey(name)) {
+            writePacked();
+        }
+    }
+
+    /** Move every branch into the packed-refs file and delete the loose
+     *  refs. */
+    void pack() {
+        writePacked();
+        for (String file : Utils.plainFilenamesIn(_heads)) {
+            Utils.join(_heads, file).delete();
+        }
+    }
+
+    /** Returns the branch map, reading it on first use. */
+    private TreeMap<String, String> load() {
+        if (_branches == null) {
+            _branches = readPacked();
+            for (String file : Utils.plainFilenamesIn(_heads)) {
+                if (file.endsWith(TMP)) {
+                    continue;
+                }
+                String id = Utils.readContentsAsString(
+                    Utils.join(_heads, file)).trim();
+                _branches.put(URLDecoder.decode(file, StandardCharsets.UTF_8),
+                              id);
+            }
+        }
+        return _branches;
+    }
+
+    /** Returns the branches in the packed-refs file. */
+    private TreeMap<String, String> readPacked() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String line
+                 : Utils.readContentsAsString(_packed).split("\n")) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                result.put(line.substring(space + 1),
+                           line.substring(0, space));
+            }
+        }
+        return result;
+    }
+
+    /** Write every branch in my snapshot to the packed-refs file. */
+    private void writePacked() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> e : load().entrySet()) {
+            text.append(e.getValue()).append(' ').append(e.getKey())
+                .append('\n');
+        }
+        replace(_packed, text.toString());
+    }
+
+    /** Returns the loose ref file of branch NAME. */
+    private File loose(String name) {
+        return Utils.join(_heads,
+                          URLEncoder.encode(name, StandardCharsets.UTF_8));
+    }
+
+    /** Replace the contents of FILE with TEXT, atomically. */
+    private static void replace(File file, String text) {
+        File tmp = new File(file.getPath() + TMP);
+        Utils.writeContents(tmp, text);
+        if (!tmp.renameTo(file)) {
+            throw new IllegalArgumentException("could not replace " + file);
+        }
+    }
+
+    /** Directory of loose refs. */
+    private final File _heads;
+    /** File of packed refs. */
+    private final File _packed;
+    /** File naming the current branch. */
+    private final File _headFile;
+    /** The branch map, or null if not yet read. */
+    private TreeMap<String, String> _branches;
+    /** The current branch, or null if not yet read. */
+    private String _current;
+
+}
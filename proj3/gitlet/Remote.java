@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/** A repository taking part in a transfer: either this one, or another
+ *  on the local filesystem, named by the path of its .gitlet directory.
+ *
+ *  A transfer sends the receiver everything it lacks of the history of
+ *  one commit, the want.  The receiver's haves are the commits of its
+ *  commit graph, which holds every ancestor of each commit it holds, so
+ *  the sender walks back from the want only as far as the first commit
+ *  the receiver has on each line of descent: those are the common
+ *  ancestors, and everything behind them is shared.  Likewise, trees
+ *  and blobs the receiver already has are not sent, and a tree it has
+ *  is not even read, so the cost of a transfer depends on the size of
+ *  the change rather than that of either repository.  If the sender
+ *  has reachability bitmaps, the trees and blobs to offer are found
+ *  from them, as those reachable from the missing commits but not from
+ *  the haves, without reading the trees behind the bitmaps.  The missing
+ *  objects are then streamed to the receiver as one Bundle, written by
+ *  one thread while the receiver stores them in another.
+ *  @author Marcus Cheung
+ */
+class Remote {
+
+    /** The repository with the given COMMITS, TREES and BLOBS stores,
+     *  REFS, commit GRAPH, MESSAGES index and JOURNAL, and with
+     *  reachability BITMAPS, or null if they are not to be used. */
+    Remote(LooseStore commits, LooseStore trees, PackedStore blobs,
+           RefStore refs, CommitGraph graph, MessageIndex messages,
+           Journal journal, Bitmaps bitmaps) {
+        _commits = commits;
+        _trees = trees;
+        _blobs = blobs;
+        _refs = refs;
+        _graph = graph;
+        _messages = messages;
+        _journal = journal;
+        _bitmaps = bitmaps;
+    }
+
+    /** Returns the repository whose .gitlet directory is GITLET, with any
+     *  change left in its journal by an interrupted command applied. */
+    static Remote open(File gitlet) {
+        File format = at(gitlet, Repo.FORMAT);
+        if (!format.exists() || Integer.parseInt(
+                Utils.readContentsAsString(format).trim())
+            != Repo.FORMAT_VERSION) {
+            throw new GitletException("Remote repository is in an older "
+                                      + "format; run gitlet there first.");
+        }
+        LooseStore commits = new LooseStore(at(gitlet, Repo.COMMITS));
+        RefStore refs = new RefStore(at(gitlet, Repo.HEADS),
+                                     at(gitlet, Repo.PACKED_REFS),
+                                     at(gitlet, Repo.HEAD));
+        CommitGraph graph = new CommitGraph(at(gitlet, Repo.COMMIT_GRAPH),
+                                            at(gitlet, Repo.COMMIT_IDS));
+        MessageIndex messages =
+            new MessageIndex(at(gitlet, Repo.MESSAGE_INDEX));
+        Journal journal = new Journal(at(gitlet, Repo.JOURNAL),
+                                      at(gitlet, Repo.JOURNAL_APPLIED),
+                                      commits, refs, graph, messages);
+        journal.recover();
+        return new Remote(commits, new LooseStore(at(gitlet, Tree.TREES)),
+                          new PackedStore(
+                              new LooseStore(at(gitlet, Repo.BLOBS)),
+                              at(gitlet, Repo.PACKS),
+                              new ChunkStore(
+                                  new LooseStore(at(gitlet, Repo.MANIFESTS)),
+                                  new LooseStore(at(gitlet, Repo.CHUNKS)))),
+                          refs, graph, messages, journal, null);
+    }
+
+    /** Returns the file of the repository whose .gitlet directory is
+     *  GITLET that corresponds to LOCAL, a file of this repository's. */
+    private static File at(File gitlet, File local) {
+        return gitlet.toPath()
+            .resolve(Repo.GITLET.toPath().relativize(local.toPath()))
+            .toFile();
+    }
+
+    /** Returns my branches. */
+    Map<String, String> branches() {
+        return _refs.branches();
+    }
+
+    /** Returns my commit graph. */
+    CommitGraph graph() {
+        return _graph;
+    }
+
+    /** Returns my journal. */
+    Journal journal() {
+        return _journal;
+    }
+
+    /** Returns my commit store. */
+    LooseStore commits() {
+        return _commits;
+    }
+
+    /** Returns my tree store. */
+    LooseStore trees() {
+        return _trees;
+    }
+
+    /** Returns my blob store. */
+    PackedStore blobs() {
+        return _blobs;
+    }
+
+    /** Returns my reachability bitmaps, or null. */
+    Bitmaps bitmaps() {
+        return _bitmaps;
+    }
+
+    /** Returns the ids of the commits in the history of WANT, one of
+     *  mine, that TO lacks, with parents before children, and add to
+     *  HAVES those TO has at which the search stopped. */
+    List<String> missing(String want, Remote to, List<String> haves) {
+        List<Integer> missing = new ArrayList<>();
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(_graph.position(want));
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos == CommitGraph.NONE || seen.get(pos)) {
+                continue;
+            }
+            seen.set(pos);
+            if (to._graph.position(_graph.id(pos)) == CommitGraph.NONE) {
+                missing.add(pos);
+                work.push(_graph.parent1(pos));
+                work.push(_graph.parent2(pos));
+            } else {
+                haves.add(_graph.id(pos));
+            }
+        }
+        Collections.sort(missing);
+        List<String> result = new ArrayList<>(missing.size());
+        for (int pos : missing) {
+            result.add(_graph.id(pos));
+        }
+        return result;
+    }
+
+    /** Send TO whatever it lacks of the history of WANT, a commit of
+     *  FROM, and add the commits sent to its commit graph and message
+     *  index.  No ref of TO is changed.  Returns the number of commits
+     *  sent. */
+    static int transfer(Remote from, Remote to, String want)
+        throws IOException {
+        List<String> haves = new ArrayList<>();
+        Bundle bundle = new Bundle(from, to, from.missing(want, to, haves),
+                                   haves);
+        PipedInputStream in = new PipedInputStream(Bundle.CHUNK_SIZE);
+        PipedOutputStream out = new PipedOutputStream(in);
+        FutureTask<Void> sender = new FutureTask<>(() -> {
+            try (out) {
+                bundle.write(out);
+            }
+            return null;
+        });
+        new Thread(sender, "gitlet-send").start();
+        List<Commit> commits;
+        try (in) {
+            commits = Bundle.read(in, to);
+        } finally {
+            await(sender);
+        }
+        to.add(commits);
+        return commits.size();
+    }
+
+    /** Wait for SENDER to finish, throwing whatever it threw. */
+    private static void await(FutureTask<Void> sender) throws IOException {
+        try {
+            sender.get();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** Add COMMITS, whose objects I hold and which are in order of
+     *  parents first, to my commit graph and message index. */
+    private void add(List<Commit> commits) {
+        _graph.append(commits);
+        Map<String, Commit> byId = new HashMap<>();
+        for (Commit c : commits) {
+            byId.put(c.getID(), c);
+        }
+        List<String> msgs = new ArrayList<>();
+        for (int pos = _messages.size(); pos < _graph.size(); pos += 1) {
+            String id = _graph.id(pos);
+            Commit c = byId.get(id);
+            msgs.add((c != null ? c : Commit.decode(_commits.read(id)))
+                     .getMSG());
+        }
+        _messages.add(msgs);
+    }
+
+    /** My commit store. */
+    private final LooseStore _commits;
+    /** My tree store. */
+    private final LooseStore _trees;
+    /** My blob store. */
+    private final PackedStore _blobs;
+    /** My refs. */
+    private final RefStore _refs;
+    /** My commit graph. */
+    private final CommitGraph _graph;
+    /** My message index. */
+    private final MessageIndex _messages;
+    /** My journal. */
+    private final Journal _journal;
+    /** My reachability bitmaps, or null. */
+    private final Bitmaps _bitmaps;
+
+}
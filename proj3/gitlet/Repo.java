@@ -1,17 +1,38 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Formatter;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /** Gitlet Repo class.
  * @author Marcus Cheung
@@ -27,176 +48,400 @@ public class Repo {
     /** Convenience. */
     static final File BLOBS = Utils.join(GITLET, "blobs");
     /** Convenience. */
+    static final File INDEX = Utils.join(GITLET, "index");
+    /** Staged additions in format version 3 and earlier. */
     static final File ADD = Utils.join(GITLET, "add");
-    /** Convenience. */
+    /** Staged removals in format version 3 and earlier. */
     static final File RM = Utils.join(GITLET, "rm");
-    /** Convenience. */
+    /** Current branch in format version 7 and earlier. */
     static final File BRANCH_NAME = Utils.join(GITLET, "branchName");
-    /** Convenience. */
+    /** Branch map in format version 7 and earlier. */
     static final File TREE = Utils.join(GITLET, "tree");
     /** Convenience. */
-    static final File MSGS = Utils.join(GITLET, "msgs");
+    static final File HEADS = Utils.join(GITLET, "refs", "heads");
     /** Convenience. */
-    static final File CHILDREN = Utils.join(GITLET, "children");
+    static final File PACKED_REFS = Utils.join(GITLET, "packed-refs");
     /** Convenience. */
+    static final File HEAD = Utils.join(GITLET, "HEAD");
+    /** Convenience. */
+    static final File JOURNAL = Utils.join(GITLET, "journal");
+    /** Convenience. */
+    static final File JOURNAL_APPLIED = Utils.join(GITLET, "journal.applied");
+    /** Commits by message in format version 6 and earlier. */
+    static final File MSGS = Utils.join(GITLET, "msgs");
+    /** Branch names of each commit's children in format version 4 and
+     * earlier. */
+    static final File CHILDREN = Utils.join(GITLET, "children");
+    /** Merged branch names in format version 4 and earlier. */
     static final File EQV = Utils.join(GITLET, "eqv");
     /** Convenience. */
+    static final File COMMIT_GRAPH = Utils.join(GITLET, "commit-graph");
+    /** Convenience. */
+    static final File COMMIT_IDS = Utils.join(GITLET, "commit-graph.idx");
+    /** Convenience. */
+    static final File MESSAGE_INDEX = Utils.join(GITLET, "message-index");
+    /** Abbreviated commit ids in format version 5 and earlier. */
     static final File IDS = Utils.join(GITLET, "ids");
+    /** Convenience. */
+    static final File PACKS = Utils.join(GITLET, "pack");
+    /** Changed-path filters of the commits. */
+    static final File PATH_FILTERS = Utils.join(GITLET, "path-filters");
+    /** Manifests of chunked blobs. */
+    static final File MANIFESTS = Utils.join(GITLET, "manifests");
+    /** Chunks of chunked blobs. */
+    static final File CHUNKS = Utils.join(GITLET, "chunks");
+    /** Convenience. */
+    static final File FORMAT = Utils.join(GITLET, "format");
+    /** Present while the commit graph and message index are being
+     * rebuilt. */
+    static final File REBUILD = Utils.join(GITLET, "rebuild");
+    /** Spill files of gc. */
+    static final File GC_SPILL = Utils.join(GITLET, "gc");
+    /** Time for which gc keeps unreachable objects, in milliseconds. */
+    static final long GC_GRACE = 14L * 24 * 60 * 60 * 1000;
+    /** Error for an untracked file that a command would overwrite. */
+    static final String UNTRACKED = "There is an untracked file in the way; "
+        + "delete it, or add and commit it first";
+    /** Remote repositories, by name. */
+    static final File REMOTES = Utils.join(GITLET, "remotes");
+    /** Version of the on-disk layout written by this program. */
+    static final int FORMAT_VERSION = 10;
+    /** Most commits decoded ahead of the one being printed by logs. */
+    static final int LOG_WINDOW = 64;
+    /** Threads decoding commits for logs. */
+    static final int LOG_THREADS = Math.min(4, Parallel.jobs());
+    /** Blob store. */
+    static final PackedStore BLOB_STORE =
+            new PackedStore(new LooseStore(BLOBS), PACKS,
+                    new ChunkStore(new LooseStore(MANIFESTS),
+                            new LooseStore(CHUNKS)));
+
+    /** Refs, read at most once per command. */
+    private final RefStore _refs = new RefStore(HEADS, PACKED_REFS, HEAD);
+    /** Commit graph. */
+    private final CommitGraph _graph =
+            new CommitGraph(COMMIT_GRAPH, COMMIT_IDS);
+    /** Commit messages, in commit graph order. */
+    private final MessageIndex _messages = new MessageIndex(MESSAGE_INDEX);
+    /** Journal through which refs, graph and messages are changed. */
+    private final Journal _journal = new Journal(JOURNAL, JOURNAL_APPLIED,
+            Commit.STORE, _refs, _graph, _messages);
+    /** Changed-path filters. */
+    private final PathFilters _paths = new PathFilters(PATH_FILTERS, _graph);
+    /** Reachability bitmaps. */
+    private final Bitmaps _bitmaps =
+            new Bitmaps(Bitmaps.OBJECTS, Bitmaps.INDEX, _graph);
+    /** Index, or null if not yet read. */
+    private Index _index;
+
+    /** gets refs.
+     * @return refs
+     * */
+    RefStore getRefs() {
+        return _refs;
+    }
 
     /** gets branches.
      * @return branches
      * */
-    @SuppressWarnings("unchecked")
-    public LinkedHashMap<String, String> getBranches() {
-        return Utils.readObject(TREE, LinkedHashMap.class);
+    public Map<String, String> getBranches() {
+        return _refs.branches();
     }
 
     /** gets branch.
      * @return branch
      * */
-    @SuppressWarnings("unchecked")
     public String getBranch() {
-        return Utils.readObject(BRANCH_NAME, String.class);
+        return _refs.current();
     }
 
     /** gets head.
      * @return head
      * */
-    @SuppressWarnings("unchecked")
     public Commit getHead() {
-        return Utils.readObject(Utils.join(COMMITS,
-                getBranches().get(getBranch())), Commit.class);
+        return Commit.read(_refs.head());
     }
 
-    /** gets children.
-     * @return children
+    /** gets commit graph.
+     * @return graph
      * */
-    @SuppressWarnings("unchecked")
-    public LinkedHashMap<String, ArrayList<String>> getChildren() {
-        return Utils.readObject(CHILDREN, LinkedHashMap.class);
+    CommitGraph getGraph() {
+        return _graph;
     }
 
-    /** gets ID.
+    /** gets ID. Fails if ABRV abbreviates more than one commit.
      * @param abrv abrv
-     * @return ID
+     * @return ID, or null if ABRV abbreviates no commit
      * */
-    @SuppressWarnings("unchecked")
     public String getID(String abrv) {
-        LinkedHashMap<String, String> ids =
-                Utils.readObject(IDS, LinkedHashMap.class);
-        return ids.get(abrv);
+        List<String> ids = _graph.ids().resolve(abrv);
+        if (ids.size() > 1) {
+            throw new GitletException("Ambiguous commit id; candidates are:\n"
+                                      + String.join("\n", ids));
+        }
+        return ids.isEmpty() ? null : ids.get(0);
     }
 
-    /** gets eqv.
-     * @return eqv
+    /** gets index.
+     * @return index
      * */
-    @SuppressWarnings("unchecked")
-    public LinkedHashMap<String, String> getEqv() {
-        return Utils.readObject(EQV, LinkedHashMap.class);
+    public Index getIndex() {
+        if (_index == null) {
+            _index = Index.read(INDEX);
+        }
+        return _index;
     }
 
     /** init. */
     @SuppressWarnings("unchecked")
     public void init() throws IOException {
         if (GITLET.exists()) {
-            System.out.println("A Gitlet version-control system already exists "
+            throw new GitletException(
+                "A Gitlet version-control system already exists "
                     + "in the current directory.");
-            System.exit(0);
         } else {
             GITLET.mkdir();
             COMMITS.mkdir();
             BLOBS.mkdir();
+            Tree.TREES.mkdir();
+            PACKS.mkdir();
+            Utils.writeContents(FORMAT, Integer.toString(FORMAT_VERSION));
 
-            ADD.createNewFile();
-            Utils.writeObject(ADD, new LinkedHashMap<String, String>());
-            RM.createNewFile();
-            Utils.writeObject(RM, new ArrayList<String>());
+            new Index(INDEX).write();
 
-            BRANCH_NAME.createNewFile();
-            Utils.writeObject(BRANCH_NAME, "master");
+            RefStore.create(HEADS, PACKED_REFS, HEAD, "master");
+            Journal.create(JOURNAL, JOURNAL_APPLIED);
 
-            TREE.createNewFile();
-            LinkedHashMap<String, String> tree = new LinkedHashMap<>();
-            tree.put("master", null);
-            Utils.writeObject(TREE, tree);
+            MessageIndex.create(MESSAGE_INDEX);
 
-            MSGS.mkdir();
+            CommitGraph.create(COMMIT_GRAPH, COMMIT_IDS);
 
-            CHILDREN.createNewFile();
-            LinkedHashMap<String, ArrayList<String>> children =
-                    new LinkedHashMap<>();
-            Utils.writeObject(CHILDREN, children);
-
-            EQV.createNewFile();
-            LinkedHashMap<String, String> eqv = new LinkedHashMap<>();
-            eqv.put("master", "master");
-            Utils.writeObject(EQV, eqv);
-
-            IDS.createNewFile();
-            LinkedHashMap<String, String> ids = new LinkedHashMap<>();
-            Utils.writeObject(IDS, ids);
-
-            Commit initial = new Commit("initial commit", null);
+            Commit initial = new Commit("initial commit", null,
+                    new TreeMap<>());
             saveCommit(initial);
-
-
-
         }
     }
-    /** add.
-     * @param name name
+    /** migrate. Brings a repository written by an older version of
+     * gitlet up to FORMAT_VERSION.  Version 1, which has no FORMAT file,
+     * kept each commit and blob uncompressed in a single flat directory.
+     * Version 2 stored commits and metadata with Java serialization.
+     * Version 3 kept staged additions and removals in separate files
+     * rather than an index.  Version 4 tracked ancestry by branch name
+     * rather than in a commit graph.  Version 5 indexed commits by
+     * their first six digits only.  Version 6 kept one file of commits
+     * per message, named by the message.  Version 7 kept all branches in
+     * one map, rewritten whenever any of them moved.  Version 8 listed
+     * every file in each commit rather than naming a tree.  Version 9
+     * stored every blob whole; its blobs are still read as they are.
      */
     @SuppressWarnings("unchecked")
-    public void add(String name) throws IOException {
-        File f = Utils.join(CWD, name);
-        if (!f.exists()) {
-            System.out.println("File doesn't exist");
-            System.exit(0);
-        } else {
-
-            byte[] contents = Utils.readContents(f);
-            String blobID = Utils.sha1(contents);
-            File blob = Utils.join(BLOBS, blobID);
+    public void migrate() {
+        int version = 1;
+        if (FORMAT.exists()) {
+            version = Integer.parseInt(
+                    Utils.readContentsAsString(FORMAT).trim());
+        }
+        if (version == FORMAT_VERSION) {
+            return;
+        }
+        if (version < 2) {
+            for (File dir : new File[] { COMMITS, BLOBS }) {
+                LooseStore store = new LooseStore(dir);
+                for (String id : Utils.plainFilenamesIn(dir)) {
+                    File old = Utils.join(dir, id);
+                    if (dir == BLOBS) {
+                        store.write(old);
+                    } else {
+                        store.write(id, Utils.readContents(old));
+                    }
+                    old.delete();
+                }
+            }
+        }
+        if (version < 3) {
+            for (String id : Commit.STORE.ids()) {
+                Commit c = Utils.deserialize(Commit.STORE.read(id),
+                        Commit.class);
+                Commit.STORE.write(id, c.encode());
+            }
+            for (File f : new File[] { ADD, TREE, EQV, IDS }) {
+                Codec.writeMap(f, Utils.readObject(f, LinkedHashMap.class));
+            }
+            Codec.writeList(RM, Utils.readObject(RM, ArrayList.class));
+            Codec.writeString(BRANCH_NAME,
+                    Utils.readObject(BRANCH_NAME, String.class));
+            Codec.writeListMap(CHILDREN,
+                    Utils.readObject(CHILDREN, LinkedHashMap.class));
+            for (String m : Utils.plainFilenamesIn(MSGS)) {
+                File f = Utils.join(MSGS, m);
+                Codec.writeList(f, Utils.readObject(f, ArrayList.class));
+            }
+        }
+        if (version < 4) {
+            Commit head = Commit.read(Codec.readMap(TREE).get(
+                    Codec.readString(BRANCH_NAME)));
+            Map<String, String> files = new TreeMap<>(head.getFiles());
+            files.putAll(Codec.readMap(ADD));
+            for (String name : Codec.readList(RM)) {
+                files.remove(name);
+            }
+            Index index = new Index(INDEX);
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                index.put(e.getKey(), e.getValue(), null);
+            }
+            index.write();
+            ADD.delete();
+            RM.delete();
+        }
+        if (version < 5) {
+            CommitGraph.create(COMMIT_GRAPH, COMMIT_IDS);
+            _graph.append(parentsFirst(Commit.STORE.ids()));
+            CHILDREN.delete();
+            EQV.delete();
+        }
+        if (version < 6) {
+            IDS.delete();
+            IdIndex.create(COMMIT_IDS);
+            _graph.ids().rebuild();
+        }
+        if (version < 7) {
+            MessageIndex.create(MESSAGE_INDEX);
+            List<String> msgs = new ArrayList<>();
+            for (int pos = 0; pos < _graph.size(); pos += 1) {
+                msgs.add(Commit.read(_graph.id(pos)).getMSG());
+            }
+            _messages.add(msgs);
+            _messages.rebuild();
+            for (String m : Utils.plainFilenamesIn(MSGS)) {
+                Utils.join(MSGS, m).delete();
+            }
+            MSGS.delete();
+        }
+        if (version < 8) {
+            RefStore.create(HEADS, PACKED_REFS, HEAD,
+                    Codec.readString(BRANCH_NAME));
+            for (Map.Entry<String, String> e
+                    : Codec.readMap(TREE).entrySet()) {
+                _refs.put(e.getKey(), e.getValue());
+            }
+            _refs.pack();
+            Journal.create(JOURNAL, JOURNAL_APPLIED);
+            TREE.delete();
+            BRANCH_NAME.delete();
+        }
+        if (version < 9) {
+            for (String id : Commit.STORE.ids()) {
+                Commit.STORE.write(id, Commit.read(id).encode());
+            }
+        }
+        PACKS.mkdir();
+        Utils.writeContents(FORMAT, Integer.toString(FORMAT_VERSION));
+    }
 
-            ArrayList<String> rm = Utils.readObject(RM, ArrayList.class);
-            if (rm.contains(name)) {
-                rm.remove(name);
-                Utils.writeObject(RM, rm);
+    /** Orders commits so that each follows its parents.
+     * @param ids ids of all commits
+     * @return commits
+     */
+    private static List<Commit> parentsFirst(List<String> ids) {
+        List<Commit> result = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        ArrayDeque<Commit> work = new ArrayDeque<>();
+        for (String id : ids) {
+            work.push(Commit.read(id));
+            while (!work.isEmpty()) {
+                Commit c = work.peek();
+                if (done.contains(c.getID())) {
+                    work.pop();
+                } else if (c.hasParent()
+                        && !done.contains(c.getParentID())) {
+                    work.push(c.getParent());
+                } else if (c.hasSecond()
+                        && !done.contains(c.getSecondID())) {
+                    work.push(c.getSecond());
+                } else {
+                    work.pop();
+                    done.add(c.getID());
+                    result.add(c);
+                }
             }
+        }
+        return result;
+    }
+
+    /** Applies any changes recorded in the journal but interrupted
+     * before they were complete. */
+    public void recover() {
+        if (REBUILD.exists()) {
+            rebuildIndexes();
+        }
+        _journal.recover();
+    }
 
-            if (!blob.exists()) {
-                blob.createNewFile();
-                Utils.writeContents(blob, contents);
+    /** Rebuilds the commit graph, its id index and the message index
+     * from the commits in the store, once some have been removed.
+     */
+    private void rebuildIndexes() {
+        Utils.writeContents(REBUILD, "");
+        _paths.clear();
+        _graph.clear();
+        _graph.append(parentsFirst(Commit.STORE.ids()));
+        _graph.ids().rebuild();
+        _messages.clear();
+        List<String> msgs = new ArrayList<>();
+        for (int pos = 0; pos < _graph.size(); pos += 1) {
+            msgs.add(Commit.read(_graph.id(pos)).getMSG());
+        }
+        _messages.add(msgs);
+        _messages.rebuild();
+        REBUILD.delete();
+    }
+
+    /** add. Files whose stat data shows them unchanged are not read;
+     * the rest are hashed and stored in parallel.
+     * @param names names
+     */
+    public void add(String... names) throws IOException {
+        for (String name : names) {
+            if (!Utils.join(CWD, name).exists()) {
+                throw new GitletException("File doesn't exist");
             }
-            LinkedHashMap<String, String> add =
-                    Utils.readObject(ADD, LinkedHashMap.class);
-            if (blobID.equals(getHead().getFiles().get(name))) {
-                add.remove(name);
-            } else {
-                add.put(name, blobID);
+        }
+        Index index = getIndex();
+        List<String> changed = new ArrayList<>();
+        for (String name : names) {
+            if (!index.unchanged(name, Utils.join(CWD, name))) {
+                changed.add(name);
             }
-            Utils.writeObject(ADD, add);
         }
+        List<String> ids = Parallel.map(changed,
+                name -> BLOB_STORE.write(Utils.join(CWD, name)));
+        for (int i = 0; i < changed.size(); i += 1) {
+            String name = changed.get(i);
+            index.put(name, ids.get(i), Utils.join(CWD, name));
+        }
+        index.write();
     }
     /** remove.
      * @param name name
      */
-    @SuppressWarnings("unchecked")
     public void remove(String name) {
-        LinkedHashMap<String, String> add =
-                Utils.readObject(ADD, LinkedHashMap.class);
-        if (add.containsKey(name)) {
-            add.remove(name);
-            Utils.writeObject(ADD, add);
-        } else if (getHead().getFiles().containsKey(name)) {
-            ArrayList<String> rm = Utils.readObject(RM, ArrayList.class);
-            rm.add(name);
-            Utils.writeObject(RM, rm);
+        Index index = getIndex();
+        String tracked = getHead().getFiles().get(name);
+        String staged = index.get(name);
+        if (staged != null && !staged.equals(tracked)) {
+            if (tracked == null) {
+                index.remove(name);
+            } else {
+                index.put(name, tracked, null);
+            }
+            index.write();
+        } else if (tracked != null) {
+            index.remove(name);
+            index.write();
             File f = Utils.join(CWD, name);
             f.delete();
         } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw new GitletException("No reason to remove the file.");
         }
     }
     /** commit.
@@ -204,74 +449,79 @@ public class Repo {
      */
     public void commit(String msg) throws IOException {
         if (msg.isBlank()) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         }
 
-        Commit commit = new Commit(msg, getHead().getID());
-        saveCommit(commit);
+        saveCommit(stagedCommit(msg, null));
+    }
+
+    /** Commit of the index.
+     * @param msg msg
+     * @param p2 second parent, or null
+     * @return commit
+     */
+    private Commit stagedCommit(String msg, String p2) {
+        Commit head = getHead();
+        Map<String, String> files = getIndex().files();
+        if (files.equals(head.getFiles())) {
+            throw new GitletException("No changes added to the commit.");
+        }
+        if (p2 == null) {
+            return new Commit(msg, head.getID(), files);
+        }
+        return new Commit(msg, head.getID(), p2, files);
     }
     /** saveCommit.
      * @param commit c
      */
     @SuppressWarnings("unchecked")
     public void saveCommit(Commit commit) throws IOException {
-        String id = commit.getID();
-
-        File f = Utils.join(COMMITS, id);
-        f.createNewFile();
-        Utils.writeObject(f, commit);
-
-        LinkedHashMap<String, String> branches = getBranches();
-        branches.put(getBranch(), id);
-        Utils.writeObject(TREE, branches);
-
-        File msg = Utils.join(MSGS, commit.getMSG());
-        ArrayList<String> commits;
-        if (msg.exists()) {
-            commits = Utils.readObject(msg, ArrayList.class);
-        } else {
-            msg.createNewFile();
-            commits = new ArrayList<>();
-        }
-        commits.add(id);
-        Utils.writeObject(msg, commits);
+        commit.save();
+        _journal.commit(commit, getBranch());
+    }
 
-        LinkedHashMap<String, ArrayList<String>> children = getChildren();
-        ArrayList<String> n = new ArrayList<>();
-        n.add(getBranch());
-        children.put(commit.getID(), n);
-        if (commit.hasParent()) {
-            String p1 = commit.getParentID();
-            ArrayList<String> p1children = children.get(p1);
-            p1children.add(getBranch());
-            children.put(p1, p1children);
-            if (commit.hasSecond()) {
-                String p2 = commit.getSecondID();
-                ArrayList<String> p2children = children.get(p2);
-                p2children.add(getBranch());
-                children.put(p2, p2children);
-            }
-        }
-        Utils.writeObject(CHILDREN, children);
 
-        LinkedHashMap<String, String> ids =
-                Utils.readObject(IDS, LinkedHashMap.class);
-        ids.put(commit.getID().substring(0, 6), commit.getID());
-        Utils.writeObject(IDS, ids);
+    /** Log method. Prints the head commit and its first-parent
+     * ancestors, newest first.
+     * @param skip number of commits to leave out first
+     * @param limit largest number of commits to print
+     */
+    public void log(int skip, int limit) {
+        printCommits(_graph.firstParents(_graph.position(_refs.head())),
+                skip, limit);
     }
 
+    /** Log method limited to PATH, a file or directory. Prints those of
+     * the head commit and its first-parent ancestors that change PATH.
+     * The changed-path filters are brought up to date first, and only
+     * the commits whose filters might hold PATH are read.
+     * @param skip number of commits to leave out first
+     * @param limit largest number of commits to print
+     * @param path path
+     */
+    public void log(int skip, int limit, String path) {
+        String p = path.replaceAll("/+$", "");
+        _paths.update();
+        PrimitiveIterator.OfInt all =
+                _graph.firstParents(_graph.position(_refs.head()));
+        printCommits(StreamSupport.intStream(Spliterators
+                .spliteratorUnknownSize(all, Spliterator.ORDERED), false)
+                .filter(pos -> _paths.mightChange(pos, p) && changes(pos, p))
+                .iterator(), skip, limit);
+    }
 
-    /** Log method. */
-    public void log() {
-        Formatter f = new Formatter();
-        Commit commit = getHead();
-        while (commit.hasParent()) {
-            f.format(commit.toString() + "\n\n");
-            commit = commit.getParent();
-        }
-        f.format(commit.toString());
-        System.out.println(f);
+    /** Returns true iff the commit at POS in the commit graph changes
+     * PATH from its first parent.
+     * @param pos pos
+     * @param path path
+     * @return true iff changed
+     */
+    private boolean changes(int pos, String path) {
+        int parent = _graph.parent1(pos);
+        String before = parent == CommitGraph.NONE ? null : Tree.lookup(
+                Commit.read(_graph.id(parent)).getTree(), path);
+        return !Objects.equals(before, Tree.lookup(
+                Commit.read(_graph.id(pos)).getTree(), path));
     }
 
     /** Singular file from head.
@@ -282,14 +532,10 @@ public class Repo {
         File path = Utils.join(CWD, filename);
         LinkedHashMap<String, String> files = getHead().getFiles();
         if (!files.containsKey(filename)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
         String bname = files.get(filename);
-        if (!path.exists()) {
-            path.createNewFile();
-        }
-        Utils.writeContents(path, Utils.readContents(Utils.join(BLOBS, bname)));
+        BLOB_STORE.copyTo(bname, path);
     }
 
     /** Checkout file from particular commit.
@@ -299,26 +545,19 @@ public class Repo {
     @SuppressWarnings("unchecked")
 
     public void checkout(String commitID, String filename) throws IOException {
-        commitID = getID(commitID.substring(0, 6));
+        commitID = getID(commitID);
 
         if (commitID == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw new GitletException("No commit with that id exists.");
         }
 
-        File c = Utils.join(COMMITS, commitID);
-
-        Commit commit = Utils.readObject(c, Commit.class);
+        Commit commit = Commit.read(commitID);
         if (!commit.getFiles().containsKey(filename)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
         String bname = commit.getFiles().get(filename);
         File path = Utils.join(CWD, filename);
-        if (!path.exists()) {
-            path.createNewFile();
-        }
-        Utils.writeContents(path, Utils.readContents(Utils.join(BLOBS, bname)));
+        BLOB_STORE.copyTo(bname, path);
     }
 
     /** branch checkout.
@@ -326,85 +565,115 @@ public class Repo {
      */
     public void bcheckout(String branchname) throws IOException {
         Commit current = getHead();
-        LinkedHashMap<String, String> branches = getBranches();
+        Map<String, String> branches = getBranches();
         if (branchname.equals(getBranch())) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw new GitletException(
+                "No need to checkout the current branch.");
         } else if (!branches.containsKey(branchname)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw new GitletException("No such branch exists.");
         } else {
-            Commit other = Utils.readObject(Utils.join(COMMITS,
-                    branches.get(branchname)), Commit.class);
-            Set<String> currentTracked = current.getFiles().keySet();
-            List<String> dir = Utils.plainFilenamesIn(CWD);
-            for (String s : dir) {
-                byte[] contents = Utils.readContents(Utils.join(CWD, s));
-                String blobID = Utils.sha1(contents);
-                if (!currentTracked.contains(s)
-                        && other.getFiles().containsKey(s)
-                        && !other.getFiles().get(s).equals(blobID)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first");
-                    System.exit(0);
+            Commit other = Commit.read(branches.get(branchname));
+            checkoutCommit(current, other);
+            _journal.setHead(branchname);
+            getIndex().reset(other.getFiles(), CWD);
+            getIndex().write();
+        }
+    }
+    /** global log. Prints every commit ever made, newest first.
+     * @param skip number of commits to leave out first
+     * @param limit largest number of commits to print
+     */
+    public void globalLog(int skip, int limit) {
+        printCommits(IntStream.iterate(_graph.size() - 1, p -> p >= 0,
+                p -> p - 1).iterator(), skip, limit);
+    }
+
+    /** Prints the commits at POSITIONS in the commit graph, after
+     * skipping SKIP of them and stopping after LIMIT.  Output goes
+     * through a buffer as each commit is ready.  Commits are decoded by
+     * LOG_THREADS threads, at most LOG_WINDOW ahead of the one being
+     * printed, so memory use does not grow with the history and output
+     * stays in order.
+     * @param positions positions
+     * @param skip skip
+     * @param limit limit
+     */
+    private void printCommits(PrimitiveIterator.OfInt positions,
+                              int skip, int limit) {
+        for (int i = 0; i < skip && positions.hasNext(); i += 1) {
+            positions.nextInt();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(LOG_THREADS);
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out, Utils.BUFFER_SIZE));
+        try {
+            int queued = 0;
+            boolean first = true;
+            while (true) {
+                while (queued < limit && window.size() < LOG_WINDOW
+                        && positions.hasNext()) {
+                    String id = _graph.id(positions.nextInt());
+                    window.add(pool.submit(() -> Commit.read(id).toString()));
+                    queued += 1;
                 }
-            }
-            for (String s : other.getFiles().keySet()) {
-                String bname = other.getFiles().get(s);
-                File path = Utils.join(CWD, s);
-                if (!path.exists()) {
-                    path.createNewFile();
+                if (window.isEmpty()) {
+                    break;
                 }
-                Utils.writeContents(path,
-                        Utils.readContents(Utils.join(BLOBS, bname)));
-            }
-            Set<String> otherTracked = other.getFiles().keySet();
-            for (String s: current.getFiles().keySet()) {
-                if (!otherTracked.contains(s)) {
-                    Utils.join(CWD, s).delete();
+                if (!first) {
+                    out.print("\n\n");
                 }
+                out.print(window.remove().get());
+                first = false;
             }
-
-            Utils.writeObject(BRANCH_NAME, branchname);
-
+            if (!first) {
+                out.println();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            out.flush();
         }
     }
-    /** global log. */
-    @SuppressWarnings("unchecked")
-    public void globalLog() {
-        Formatter f = new Formatter();
-        List<String> names = Utils.plainFilenamesIn(COMMITS);
-        for (int i = 1; i < names.size(); i++) {
-            Commit commit = Utils.readObject(
-                    Utils.join(COMMITS, names.get(i)), Commit.class);
-            f.format(commit.toString() + "\n\n");
-        }
-        Commit commit = Utils.readObject(
-                Utils.join(COMMITS, names.get(0)), Commit.class);
-        f.format(commit.toString());
-        System.out.println(f);
-    }
     /** find.
      * @param msg msg
      */
-    @SuppressWarnings("unchecked")
     public void find(String msg) {
-        Formatter f = new Formatter();
-        if (msg.charAt(0) == '\"' && msg.charAt(msg.length() - 1) == '\"') {
+        if (msg.length() > 1 && msg.charAt(0) == '\"'
+                && msg.charAt(msg.length() - 1) == '\"') {
             msg = msg.substring(1, msg.length() - 1);
         }
-        File msgFile = Utils.join(MSGS, msg);
-        if (msgFile.exists()) {
-            ArrayList<String> commits =
-                    Utils.readObject(msgFile, ArrayList.class);
-            for (String commitID : commits) {
-                f.format(commitID + "\n");
-            }
-            System.out.println(f);
-        } else {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        printFound(_messages.exact(msg));
+    }
+
+    /** find --word. Finds commits whose messages contain all of WORDS
+     * as words, ignoring case.
+     * @param words words
+     */
+    public void findWords(String... words) {
+        printFound(_messages.withWords(words));
+    }
+
+    /** find --grep. Finds commits whose messages contain TEXT.
+     * @param text text
+     */
+    public void findSubstring(String text) {
+        printFound(_messages.containing(text));
+    }
+
+    /** Prints the ids of the commits at POSITIONS in the commit graph.
+     * @param positions positions
+     */
+    private void printFound(List<Integer> positions) {
+        if (positions.isEmpty()) {
+            throw new GitletException("Found no commit with that message.");
         }
+        Formatter f = new Formatter();
+        for (int pos : positions) {
+            f.format(_graph.id(pos) + "\n");
+        }
+        System.out.println(f);
     }
     /** status.*/
     @SuppressWarnings("unchecked")
@@ -419,62 +688,134 @@ public class Repo {
             }
         }
         f.format("\n=== Staged Files ===\n");
-        LinkedHashMap<String, String> add =
-                Utils.readObject(ADD, LinkedHashMap.class);
-        for (String s : add.keySet()) {
-            f.format(s + "\n");
+        Index index = getIndex();
+        Map<String, String> staged = index.files();
+        Map<String, String> tracked = getHead().getFiles();
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            if (!e.getValue().equals(tracked.get(e.getKey()))) {
+                f.format(e.getKey() + "\n");
+            }
         }
         f.format("\n=== Removed Files ===\n");
-        ArrayList<String> rm = Utils.readObject(RM, ArrayList.class);
-        for (String s : rm)  {
-            f.format(s + "\n");
+        for (String s : new TreeSet<>(tracked.keySet()))  {
+            if (!staged.containsKey(s)) {
+                f.format(s + "\n");
+            }
         }
         f.format("\n=== Modifications Not Staged For Commit ===\n");
-
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            File w = Utils.join(CWD, e.getKey());
+            if (!w.exists()) {
+                f.format(e.getKey() + " (deleted)\n");
+            } else if (!index.hash(e.getKey(), w).equals(e.getValue())) {
+                f.format(e.getKey() + " (modified)\n");
+            }
+        }
         f.format("\n=== Untracked Files ===\n");
         List<String> files = Utils.plainFilenamesIn(CWD);
         Collections.sort(files);
         for (String s : files) {
-            if (!add.containsKey(s) && !getHead().getFiles().containsKey(s)) {
+            if (!staged.containsKey(s)) {
                 f.format(s + "\n");
             }
         }
+        index.writeIfChanged();
         System.out.println(f);
     }
 
 
-    /** branch.
-     * @param name name
+    /** diff. Shows the changes in the working tree not yet staged,
+     * reading only files whose stat data shows them changed.
      */
-    @SuppressWarnings("unchecked")
-    public void branch(String name) {
-        LinkedHashMap<String, String> branches = getBranches();
-        if (branches.containsKey(name)) {
-            System.out.println("A branch with that name already exists");
-            System.exit(0);
-        } else {
-            String id = getHead().getID();
-            branches.put(name, id);
-            Utils.writeObject(TREE, branches);
-            addEqv(name, name);
+    public void diff() throws IOException {
+        Index index = getIndex();
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out, Utils.BUFFER_SIZE));
+        try {
+            for (Map.Entry<String, String> e : index.files().entrySet()) {
+                File w = Utils.join(CWD, e.getKey());
+                if (!w.exists()) {
+                    printDiff(out, e.getKey(), e.getValue(), null);
+                } else if (!index.hash(e.getKey(), w).equals(e.getValue())) {
+                    Diff.writeUnified(out, e.getKey(),
+                            () -> BLOB_STORE.open(e.getValue()),
+                            () -> new FileInputStream(w));
+                }
+            }
+        } finally {
+            out.flush();
+        }
+        index.writeIfChanged();
+    }
 
-            LinkedHashMap<String, ArrayList<String>> children = getChildren();
-            ArrayList<String> n = children.get(id);
-            n.add(name);
-            children.put(id, n);
-            Utils.writeObject(CHILDREN, children);
+    /** diff --cached. Shows the changes staged for the next commit. */
+    public void diffCached() throws IOException {
+        Map<String, String> head = getHead().getFiles();
+        Map<String, String> staged = getIndex().files();
+        TreeSet<String> paths = new TreeSet<>(head.keySet());
+        paths.addAll(staged.keySet());
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out, Utils.BUFFER_SIZE));
+        try {
+            for (String path : paths) {
+                if (!Objects.equals(head.get(path), staged.get(path))) {
+                    printDiff(out, path, head.get(path), staged.get(path));
+                }
+            }
+        } finally {
+            out.flush();
         }
     }
 
-    /** addEqv.
-     * @param other other
+    /** diff between commits.  Only the directories whose trees differ
+     * are read.
+     * @param from from commit id
+     * @param to to commit id
+     */
+    public void diffCommits(String from, String to) throws IOException {
+        String a = getID(from), b = getID(to);
+        if (a == null || b == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        String fromTree = Commit.read(a).getTree();
+        String toTree = Commit.read(b).getTree();
+        Map<String, String> old = Tree.diff(toTree, fromTree);
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out, Utils.BUFFER_SIZE));
+        try {
+            for (Map.Entry<String, String> e
+                    : Tree.diff(fromTree, toTree).entrySet()) {
+                printDiff(out, e.getKey(), old.get(e.getKey()),
+                        e.getValue());
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /** Writes a unified diff between two blobs.
+     * @param out out
+     * @param path path
+     * @param from blob id, or null if absent
+     * @param to blob id, or null if absent
+     */
+    private void printDiff(PrintStream out, String path, String from,
+                           String to) throws IOException {
+        Diff.writeUnified(out, path,
+                from == null ? null : () -> BLOB_STORE.open(from),
+                to == null ? null : () -> BLOB_STORE.open(to));
+    }
+
+    /** branch.
      * @param name name
      */
     @SuppressWarnings("unchecked")
-    public void addEqv(String name, String other) {
-        LinkedHashMap<String, String> eqv = getEqv();
-        eqv.put(name, other);
-        Utils.writeObject(EQV, eqv);
+    public void branch(String name) {
+        if (getBranches().containsKey(name)) {
+            throw new GitletException("A branch with that name already exists");
+        } else {
+            _journal.setRef(name, _refs.head());
+        }
     }
 
     /** rmBranch.
@@ -482,16 +823,13 @@ public class Repo {
      */
     @SuppressWarnings("unchecked")
     public void rmBranch(String name) {
-        LinkedHashMap<String, String> branches = getBranches();
-        if (!branches.containsKey(name)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (!getBranches().containsKey(name)) {
+            throw new GitletException(
+                "A branch with that name does not exist.");
         } else if (name.equals(getBranch())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw new GitletException("Cannot remove the current branch.");
         } else {
-            branches.remove(name);
-            Utils.writeObject(TREE, branches);
+            _journal.setRef(name, null);
         }
     }
 
@@ -500,226 +838,395 @@ public class Repo {
      */
     @SuppressWarnings("unchecked")
     public void reset(String id) throws IOException {
-        id = getID(id.substring(0, 6));
+        id = getID(id);
         if (id == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw new GitletException("No commit with that id exists.");
         }
         Commit current = getHead();
-        Commit other = Utils.readObject(Utils.join(COMMITS, id), Commit.class);
-        Set<String> currentTracked = current.getFiles().keySet();
-        List<String> dir = Utils.plainFilenamesIn(CWD);
-        for (String s : dir) {
-            byte[] contents = Utils.readContents(Utils.join(CWD, s));
-            String blobID = Utils.sha1(contents);
-            if (!currentTracked.contains(s)
-                    && other.getFiles().containsKey(s)
-                    && !other.getFiles().get(s).equals(blobID)) {
-                System.out.println("There is an untracked file in the way;"
-                        + " delete it, or add and commit it first");
-                System.exit(0);
+        Commit other = Commit.read(id);
+        checkoutCommit(current, other);
+        _journal.setRef(getBranch(), id);
+        getIndex().reset(other.getFiles(), CWD);
+        getIndex().write();
+    }
+
+    /** Replaces the files of CURRENT in the working directory with
+     * those of OTHER, touching only the paths that differ.  A path is
+     * written if its blob differs between the commits' trees, or if its
+     * working file does not hold the blob (judged by the index's stat
+     * data where possible); it is deleted if only CURRENT tracks it.
+     * Fails, having changed nothing, if an untracked file is in the way.
+     * @param current current
+     * @param other other
+     */
+    private void checkoutCommit(Commit current, Commit other)
+            throws IOException {
+        Map<String, String> from = current.getFiles();
+        Map<String, String> to = other.getFiles();
+        Map<String, String> changed =
+                Tree.diff(current.getTree(), other.getTree());
+        Index index = getIndex();
+        List<String> write = new ArrayList<>();
+        List<String> check = new ArrayList<>();
+        for (Map.Entry<String, String> e : to.entrySet()) {
+            String name = e.getKey();
+            File f = Utils.join(CWD, name);
+            if (changed.containsKey(name) || !f.exists()) {
+                write.add(name);
+            } else if (!index.unchanged(name, f)) {
+                check.add(name);
+            } else if (!e.getValue().equals(index.get(name))) {
+                write.add(name);
             }
         }
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            if (!other.getFiles().containsKey(s)) {
-                Utils.join(CWD, s).delete();
+        List<String> hashes = Parallel.map(check,
+                name -> Utils.sha1(Utils.join(CWD, name)));
+        for (int i = 0; i < check.size(); i += 1) {
+            if (!hashes.get(i).equals(to.get(check.get(i)))) {
+                write.add(check.get(i));
             }
         }
-        for (String s : other.getFiles().keySet()) {
-            String bname = other.getFiles().get(s);
-            File path = Utils.join(CWD, s);
-            if (!path.exists()) {
-                path.createNewFile();
+        Collections.sort(write);
+        checkUntracked(from, to, write);
+        Parallel.run(write, name ->
+                BLOB_STORE.copyTo(to.get(name), Utils.join(CWD, name)));
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            if (e.getValue() == null) {
+                Utils.join(CWD, e.getKey()).delete();
             }
-            Utils.writeContents(path,
-                    Utils.readContents(Utils.join(BLOBS, bname)));
         }
-        LinkedHashMap<String, String> branches = getBranches();
-        String name = getBranch();
-        branches.put(name, id);
-        Utils.writeObject(TREE, branches);
+    }
 
-        Utils.writeObject(ADD, new LinkedHashMap<String, String>());
+    /** Fails if writing the files PATHS of TARGET would overwrite an
+     * untracked file, one not in CURRENT, that differs from it.  Only
+     * those files are read.
+     * @param current current
+     * @param target target
+     * @param paths paths
+     */
+    private void checkUntracked(Map<String, String> current,
+                                Map<String, String> target,
+                                List<String> paths) {
+        for (String s : paths) {
+            File f = Utils.join(CWD, s);
+            if (current.containsKey(s) || !f.exists()) {
+                continue;
+            }
+            if (!target.get(s).equals(Utils.sha1(f))) {
+                throw new GitletException(UNTRACKED);
+            }
+        }
     }
 
-    /** eqv.
+    /** addRemote. Records NAME as the repository whose .gitlet
+     * directory is at PATH, written with '/' separators.
      * @param name name
-     * @return name
+     * @param path path
      */
-    @SuppressWarnings("unchecked")
-    public String eqvName(String name) {
-        LinkedHashMap<String, String> eqv = getEqv();
-        String next = eqv.get(name);
-        while (name != next) {
-            name = next;
-            next = eqv.get(name);
+    public void addRemote(String name, String path) {
+        Map<String, String> remotes = getRemotes();
+        if (remotes.containsKey(name)) {
+            throw new GitletException(
+                "A remote with that name already exists.");
         }
-        return name;
+        remotes.put(name, path.replace("/", File.separator));
+        Codec.writeMap(REMOTES, remotes);
     }
 
-    /** merge.
-     * @param other other
+    /** rmRemote.
+     * @param name name
      */
-    @SuppressWarnings("unchecked")
-    public void merge(String other) throws IOException {
-        LinkedHashMap<String, String> add =
-                Utils.readObject(ADD, LinkedHashMap.class);
-        ArrayList<String> rm = Utils.readObject(RM, ArrayList.class);
-        mergeVerify(other, add, rm);
-        Commit o = Utils.readObject(Utils.join(COMMITS,
-                getBranches().get(other)), Commit.class);
-        Commit head = getHead();
-        Commit split = getSplit(other);
-        verifySplit(split, head, o, other);
-        Set<Map.Entry<String, String>> cMod = modified(head, split);
-        Set<Map.Entry<String, String>> oMod = modified(o, split);
-        Set<String> cModK = modifiedKeys(cMod);
-        Set<String> oModK = modifiedKeys(oMod);
-        Set<String> addFiles = new HashSet<>();
-        Set<String> rmFiles = new HashSet<>();
-        Set<Map.Entry<String, String>> case1 = new HashSet<>(oMod);
-        case1.removeAll(cMod);
-        for (Map.Entry<String, String> e : case1) {
-            if (!dontAdd(o.getFiles(), head.getFiles(),
-                    split.getFiles(), cModK, oModK, e.getKey())) {
-                addFiles.add(e.getKey());
-            }
+    public void rmRemote(String name) {
+        Map<String, String> remotes = getRemotes();
+        if (remotes.remove(name) == null) {
+            throw new GitletException(
+                "A remote with that name does not exist.");
         }
-        Set<String> case2 = new HashSet<>(o.getFiles().keySet());
-        case2.removeAll(split.getFiles().keySet());
-        for (String f : case2) {
-            if (!dontAdd(o.getFiles(), head.getFiles(),
-                    split.getFiles(), cModK, oModK, f)) {
-                addFiles.add(f);
+        Codec.writeMap(REMOTES, remotes);
+    }
+
+    /** push. Sends the remote NAME whatever it lacks of the current
+     * head and moves its BRANCH there, if that only adds to BRANCH.
+     * @param name name
+     * @param branch branch
+     */
+    public void push(String name, String branch) throws IOException {
+        Remote remote = openRemote(name);
+        String head = _refs.head();
+        String theirs = remote.branches().get(branch);
+        if (theirs != null) {
+            int pos = _graph.position(theirs);
+            if (pos == CommitGraph.NONE
+                || !_graph.reaches(_graph.position(head), pos)) {
+                throw new GitletException(
+                    "Please pull down remote changes before pushing.");
             }
         }
-        Set<Map.Entry<String, String>> case3 =
-                new HashSet<>(split.getFiles().entrySet());
-        for (Map.Entry<String, String> e : case3) {
-            String f = e.getKey();
+        Remote.transfer(local(), remote, head);
+        remote.journal().setRef(branch, head);
+    }
 
-            if (!cMod.contains(e)
-                    && !o.getFiles().containsKey(f)
-                    && !stay(o.getFiles(), head.getFiles(),
-                            split.getFiles(), cModK, oModK, f)) {
-                rmFiles.add(f);
-            }
+    /** fetch. Copies what this repository lacks of BRANCH of the remote
+     * NAME, and points the branch NAME/BRANCH at its head.  Refuses if
+     * NAME/BRANCH is checked out, since moving it would leave the
+     * working directory and index behind.
+     * @param name name
+     * @param branch branch
+     */
+    public void fetch(String name, String branch) throws IOException {
+        if (getBranch().equals(name + "/" + branch)) {
+            throw new GitletException("Cannot fetch into the current branch.");
+        }
+        Remote remote = openRemote(name);
+        String theirs = remote.branches().get(branch);
+        if (theirs == null) {
+            throw new GitletException(
+                "That remote does not have that branch.");
         }
+        Remote.transfer(remote, local(), theirs);
+        _journal.setRef(name + "/" + branch, theirs);
+    }
 
-        Set<String> conflictFiles = getConflict(split, head, o, oMod, cMod);
-        mergeUntrackedVerify(addFiles, rmFiles, conflictFiles);
-        mergeCommit(addFiles, rmFiles, conflictFiles, other);
+    /** pull. Fetches BRANCH of the remote NAME and merges it.  If the
+     * current branch is behind, it is reset to the fetched head rather
+     * than, as merge would, checking out the branch NAME/BRANCH.
+     * @param name name
+     * @param branch branch
+     */
+    public void pull(String name, String branch) throws IOException {
+        fetch(name, branch);
+        String other = name + "/" + branch;
+        int head = _graph.position(_refs.head());
+        int given = _graph.position(getBranches().get(other));
+        if (head != given && _graph.reaches(given, head)) {
+            mergeVerify(other);
+            reset(_graph.id(given));
+            throw new GitletException("Current branch fast-forwarded.");
+        }
+        merge(other);
     }
 
-    /** merge.
-     * @param split split
-     * @param head head
-     * @param o o
-     * @param oMod oMod
-     * @param cMod cMod
-     * @return conflicts
+    /** gets remotes.
+     * @return map from remote names to paths of their .gitlet directories
      */
-    @SuppressWarnings("unchecked")
-    public Set<String> getConflict(Commit split, Commit head, Commit o,
-                                   Set<Map.Entry<String, String>> oMod,
-                                   Set<Map.Entry<String, String>> cMod) {
-        Set<String> conflictFiles = new HashSet<>();
-        for (Map.Entry<String, String> e : split.getFiles().entrySet()) {
-            String f = e.getKey();
-            String b = e.getValue();
-            LinkedHashMap<String, String> hmap = head.getFiles();
-            LinkedHashMap<String, String> omap = o.getFiles();
-            if (hmap.containsKey(f)
-                    && omap.containsKey(f)
-                    && !hmap.get(f).equals(omap.get(f))
-                    && !hmap.get(f).equals(b)
-                    && !omap.get(f).equals(b)
-            ) {
-                conflictFiles.add(e.getKey());
-            }
+    Map<String, String> getRemotes() {
+        return REMOTES.exists() ? Codec.readMap(REMOTES)
+            : new LinkedHashMap<>();
+    }
+
+    /** Opens the remote NAME.
+     * @param name name
+     * @return remote
+     */
+    private Remote openRemote(String name) {
+        String path = getRemotes().get(name);
+        if (path == null) {
+            throw new GitletException(
+                "A remote with that name does not exist.");
         }
-        for (Map.Entry<String, String> e : oMod) {
-            if (!head.getFiles().containsKey(e.getKey())) {
-                conflictFiles.add(e.getKey());
-            }
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = Utils.join(CWD, path);
         }
-        for (Map.Entry<String, String> e : cMod) {
-            if (!o.getFiles().containsKey(e.getKey())) {
-                conflictFiles.add(e.getKey());
-            }
+        if (!dir.isDirectory()) {
+            throw new GitletException("Remote directory not found.");
+        }
+        return Remote.open(dir);
+    }
+
+    /** Returns this repository as a party to a transfer.
+     * @return this repository
+     */
+    private Remote local() {
+        return new Remote(Commit.STORE, Tree.STORE, BLOB_STORE, _refs,
+                          _graph, _messages, _journal, _bitmaps);
+    }
+
+    /** countObjects. Prints the numbers of commits, trees and blobs
+     * reachable from FROM but not from EXCLUDE, each a branch name or a
+     * commit id, counted from the reachability bitmaps.
+     * @param from from
+     * @param exclude exclude, or null to exclude nothing
+     */
+    public void countObjects(String from, String exclude) {
+        Ewah objects = _bitmaps.reachable(List.of(commitNamed(from)));
+        if (exclude != null) {
+            objects = objects.andNot(
+                _bitmaps.reachable(List.of(commitNamed(exclude))));
+        }
+        System.out.printf("%d commits, %d trees, %d blobs%n",
+                objects.and(_bitmaps.ofKind(Bitmaps.COMMIT)).cardinality(),
+                objects.and(_bitmaps.ofKind(Bitmaps.TREE)).cardinality(),
+                objects.and(_bitmaps.ofKind(Bitmaps.BLOB)).cardinality());
+    }
+
+    /** Returns the commit NAME names, as a branch or a commit id.
+     * @param name name
+     * @return commit id
+     */
+    private String commitNamed(String name) {
+        String id = getBranches().get(name);
+        if (id == null) {
+            id = getID(name);
         }
-        Set<String> all = new HashSet<>(o.getFiles().keySet());
-        all.retainAll(head.getFiles().keySet());
-        for (String f : all) {
-            if (!split.getFiles().containsKey(f)
-                    && !o.getFiles().get(f).equals(head.getFiles().get(f))) {
-                conflictFiles.add(f);
+        if (id == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return id;
+    }
+
+    /** repack. Folds loose blobs into a pack, putting the versions of
+     * each file name next to each other so they delta well, and brings
+     * the reachability bitmaps and changed-path filters up to date.
+     */
+    public void repack() {
+        BLOB_STORE.repack(packOrder());
+        _bitmaps.refresh(getBranches().values());
+        _paths.update();
+    }
+
+    /** gc. Removes the objects that can no longer be reached, keeping
+     * those written within GC_GRACE unless NOW, then repacks the rest and
+     * packs the refs.  The commit graph and the indexes built on it are
+     * rebuilt only if a commit was removed.
+     * @param now true to keep no unreachable objects
+     */
+    public void gc(boolean now) throws IOException {
+        long start = System.currentTimeMillis();
+        long before = storedBytes();
+        Collection<String> heads = getBranches().values();
+        _bitmaps.refresh(heads);
+        Collector collector = new Collector(_graph, heads,
+                getIndex().files().values(),
+                now ? Long.MAX_VALUE : start - GC_GRACE, GC_SPILL);
+        collector.assume(_bitmaps, _bitmaps.reachable(heads));
+        try {
+            Trace.Phase mark = Trace.phase("gc.mark");
+            try {
+                collector.mark(BLOB_STORE.chunked());
+            } finally {
+                mark.close();
+            }
+            boolean unreachable = collector.unreachableCommits();
+            if (unreachable) {
+                Utils.writeContents(REBUILD, "");
             }
+            Trace.Phase sweep = Trace.phase("gc.sweep");
+            try {
+                for (int k = 0; k < Collector.PARTITIONS; k += 1) {
+                    collector.sweep(k, BLOB_STORE);
+                }
+            } finally {
+                sweep.close();
+            }
+            if (collector.deletedCommits()) {
+                rebuildIndexes();
+                _bitmaps.prune();
+            } else if (unreachable) {
+                REBUILD.delete();
+            }
+            _paths.update();
+            Trace.Phase repack = Trace.phase("gc.repack");
+            try {
+                BLOB_STORE.repack(packOrder(), collector::keep);
+            } finally {
+                repack.close();
+            }
+        } finally {
+            collector.cleanUp();
         }
-        return conflictFiles;
+        _journal.clear();
+        _refs.pack();
+        System.out.printf("Removed %d objects and reclaimed %d bytes "
+                + "in %d ms.%n", collector.deleted(),
+                before - storedBytes(), System.currentTimeMillis() - start);
     }
 
-    /** stay.
-     * @param head head
-     * @param other other
-     * @param cMod cMod
-     * @param oMod oMod
-     * @param f f
-     * @param split split
-     * @return bool
+    /** Total size of the object stores.
+     * @return bytes
      */
-    public boolean stay(LinkedHashMap other, LinkedHashMap head,
-                        LinkedHashMap split, Set<String> cMod,
-                        Set<String> oMod, String f) {
-        return (other.containsKey(f) && head.containsKey(f)
-                && other.get(f).equals(head.get(f)))
-                || (cMod.contains(f) && !oMod.contains(f))
-                || (!split.containsKey(f) && !other.containsKey(f)
-                        && head.containsKey(f))
-                || (split.containsKey(f) && !oMod.contains(f)
-                        && !head.containsKey(f));
+    private static long storedBytes() {
+        long total = 0;
+        for (File dir : new File[] { COMMITS, Tree.TREES, BLOBS, PACKS,
+                                     MANIFESTS, CHUNKS }) {
+            total += size(dir);
+        }
+        return total;
     }
 
-    /** don't Add.
-     * @param split split
-     * @param head head
-     * @param other other
-     * @param cMod cMod
-     * @param oMod oMod
+    /** Size of a file or of everything under a directory.
      * @param f f
-     * @return bool
+     * @return bytes
      */
-    public boolean dontAdd(LinkedHashMap other, LinkedHashMap head,
-                           LinkedHashMap split, Set<String> cMod,
-                           Set<String> oMod, String f) {
-        return (cMod.contains(f) && !oMod.contains(f))
-                ||  (!other.containsKey(f)
-                        && !head.containsKey(f))
-                || (other.get(f).equals(head.get(f)))
-                || (!split.containsKey(f)
-                        && !other.containsKey(f) && head.containsKey(f))
-                || (split.containsKey(f)
-                        && !other.containsKey(f) && !cMod.contains(f))
-                || (split.containsKey(f)
-                        && !head.containsKey(f) && !oMod.contains(f));
+    private static long size(File f) {
+        File[] files = f.listFiles();
+        if (files == null) {
+            return f.length();
+        }
+        long total = 0;
+        for (File g : files) {
+            total += size(g);
+        }
+        return total;
     }
 
+    /** Order for packing blobs: the versions of each file name together.
+     * @return blob ids
+     */
+    private List<String> packOrder() {
+        TreeMap<String, LinkedHashSet<String>> versions = new TreeMap<>();
+        for (String id : Commit.STORE.ids()) {
+            Commit c = Commit.read(id);
+            for (Map.Entry<String, String> e : c.getFiles().entrySet()) {
+                versions.computeIfAbsent(e.getKey(),
+                        k -> new LinkedHashSet<>()).add(e.getValue());
+            }
+        }
+        List<String> order = new ArrayList<>();
+        for (LinkedHashSet<String> blobs : versions.values()) {
+            order.addAll(blobs);
+        }
+        return order;
+    }
+
+    /** merge.  Plans the merge in one walk of the trees of the split
+     * point and of both branches, then applies the plan in one batch.
+     * @param other other
+     */
+    public void merge(String other) throws IOException {
+        mergeVerify(other);
+        Commit o = Commit.read(getBranches().get(other));
+        Commit head = getHead();
+        Commit split = getSplit(other);
+        verifySplit(split, head, o, other);
+        MergePlan plan;
+        Trace.Phase planning = Trace.phase("merge.plan");
+        try {
+            plan = new MergePlan(split.getTree(), head.getTree(),
+                    o.getTree());
+        } finally {
+            planning.close();
+        }
+        mergeUntrackedVerify(plan);
+        Trace.Phase applying = Trace.phase("merge.apply");
+        try {
+            mergeCommit(plan, o, other);
+        } finally {
+            applying.close();
+        }
+    }
 
     /** verify.
      * @param other other
-     * @param add add
-     * @param rm rm
      */
-    public void mergeVerify(String other, LinkedHashMap add, ArrayList rm) {
+    public void mergeVerify(String other) {
         if (getBranch().equals(other)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw new GitletException("Cannot merge a branch with itself.");
         } else if (!getBranches().containsKey(other)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
-        } else if (!add.isEmpty() || !rm.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw new GitletException(
+                "A branch with that name does not exist.");
+        } else if (!getIndex().files().equals(getHead().getFiles())) {
+            throw new GitletException("You have uncommitted changes.");
         }
     }
 
@@ -732,206 +1239,146 @@ public class Repo {
     public void verifySplit(Commit split, Commit head,
                             Commit other, String name) throws IOException {
         if (split.getID().equals(other.getID())) {
-            System.out.println("Given branch is an "
+            throw new GitletException("Given branch is an "
                     + "ancestor of the current branch.");
-            System.exit(0);
         }
         if (head.getID().equals(split.getID())) {
-            System.out.println("Current branch fast-forwarded.");
             bcheckout(name);
-            System.exit(0);
+            throw new GitletException("Current branch fast-forwarded.");
         }
     }
     /** Untracked.
-     * @param add add
-     * @param rm rm
-     * @param conflict conflict
-     */
-    public void mergeUntrackedVerify(Set<String> add,
-                                     Set<String> rm,
-                                     Set<String> conflict) {
-        Set<String> currentTracked = getHead().getFiles().keySet();
-        for (String f : Utils.plainFilenamesIn(CWD)) {
-            if (!currentTracked.contains(f)
-                    && (add.contains(f)
-                            || rm.contains(f)
-                            || conflict.contains(f))) {
-                System.out.println(
-                        "There is an untracked file in the way; "
-                                + "delete it, or add and commit it first");
-                System.exit(0);
-            }
-        }
-    }
-    /** split.
-     * @param other other
-     * @return split
+     * @param plan plan
      */
-    @SuppressWarnings("unchecked")
-    public Commit getSplit(String other) throws IOException {
-        ArrayList<Commit> queue = new ArrayList();
-        HashMap<String, Integer> distances = new HashMap<>();
-        int minDistance = Integer.MAX_VALUE;
-        Commit head = getHead();
-        Commit split = null;
-        queue.add(head);
-        distances.put(queue.get(0).getID(), 0);
-        while (!queue.isEmpty()) {
-            Commit current = queue.remove(0);
-            String id = current.getID();
-            int distance = distances.get(id);
-            ArrayList<String> children = getChildren().get(id);
-
-            for (int i = 0; i < children.size(); i++) {
-                children.set(i, eqvName(children.get(i)));
-            }
-            if (children.contains(getBranch())
-                    && children.contains(other)) {
-                if (split != null) {
-                    if (distance <= minDistance) {
-                        split = current;
-                    }
-                    break;
-                } else {
-                    split = current;
-                    minDistance = distance;
-                }
-            }
-            if (current.hasParent()) {
-                int pDistance = distances.get(current.getID()) + 1;
-                Commit p1 = current.getParent();
-                queue.add(p1);
-                distances.put(p1.getID(), pDistance);
-                if (current.hasSecond()) {
-                    Commit p2 = current.getSecond();
-                    queue.add(p2);
-                    distances.put(p2.getID(), pDistance);
-                }
-            } else if (split == null) {
-                split = current;
-                minDistance = distance;
+    public void mergeUntrackedVerify(MergePlan plan) {
+        for (MergePlan.Step step : plan.steps()) {
+            if (step.head == null && Utils.join(CWD, step.path).exists()) {
+                throw new GitletException(UNTRACKED);
             }
         }
-        return split;
     }
-
-    /** modrm.
-     * @param c c
-     * @param split split
-     * @return modrm
+    /** split. The merge base of the head and OTHER, found in the
+     * commit graph; if there are several, the one closest to the head.
+     * @param other other
+     * @return split
      */
-    public Set<Map.Entry<String, String>> modifiedRM(Commit c, Commit split) {
-        Set<Map.Entry<String, String>> splitFiles = new
-                HashSet<>(split.getFiles().entrySet());
-        Set<Map.Entry<String, String>> modRM = new
-                HashSet<>(c.getFiles().entrySet());
-        modRM.removeAll(splitFiles);
-        return modRM;
+    public Commit getSplit(String other) {
+        int head = _graph.position(_refs.head());
+        int given = _graph.position(getBranches().get(other));
+        List<Integer> bases = _graph.mergeBases(head, given);
+        return Commit.read(_graph.id(_graph.nearest(head, bases)));
     }
 
-    /** modK.
-     * @param c c
-     * @param split split
-     * @return mod
+    /** Writes a conflict between two versions of a file, one of them
+     * absent, streaming the other from the blob store.
+     * @param target file to write
+     * @param headBlob head version, or null if absent
+     * @param otherBlob other version, or null if absent
      */
-    public Set<Map.Entry<String, String>> modified(Commit c, Commit split) {
-        Set<Map.Entry<String, String>> splitFiles =
-                new HashSet<>(split.getFiles().entrySet());
-        Set<Map.Entry<String, String>> modRM =
-                new HashSet<>(c.getFiles().entrySet());
-        modRM.removeAll(splitFiles);
-
-        Set<Map.Entry<String, String>> mod = new HashSet<>();
-        for (Map.Entry<String, String> e : modRM) {
-            if (split.getFiles().containsKey(e.getKey())) {
-                mod.add(e);
+    private void writeConflict(File target, String headBlob,
+                               String otherBlob) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(target), Utils.BUFFER_SIZE)) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (headBlob != null) {
+                try (InputStream in = BLOB_STORE.open(headBlob)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (otherBlob != null) {
+                try (InputStream in = BLOB_STORE.open(otherBlob)) {
+                    in.transferTo(out);
+                }
             }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
         }
-        return mod;
     }
 
-    /** modK.
-     * @param mod mod
-     * @return modK
+    /** Writes the line-by-line merge of two versions of a file that
+     * both sides have changed.  If any version is larger than
+     * Diff.MAX_TEXT, the whole of both sides is written as a conflict,
+     * streamed, rather than read into memory to be merged.
+     * @param target file to write
+     * @param baseBlob split point version, or null if absent
+     * @param headBlob head version
+     * @param otherBlob other version
+     * @return true iff the versions conflict
      */
-    public Set<String> modifiedKeys(Set<Map.Entry<String, String>> mod) {
-        Set<String> mK = new HashSet<>();
-        for (Map.Entry<String, String> e : mod) {
-            mK.add(e.getKey());
+    private boolean writeMerge(File target, String baseBlob,
+                               String headBlob, String otherBlob)
+            throws IOException {
+        byte[] base = baseBlob == null ? new byte[0]
+                : Diff.readAtMost(() -> BLOB_STORE.open(baseBlob),
+                        Diff.MAX_TEXT);
+        byte[] head = base == null ? null
+                : Diff.readAtMost(() -> BLOB_STORE.open(headBlob),
+                        Diff.MAX_TEXT);
+        byte[] other = head == null ? null
+                : Diff.readAtMost(() -> BLOB_STORE.open(otherBlob),
+                        Diff.MAX_TEXT);
+        if (other == null) {
+            writeConflict(target, headBlob, otherBlob);
+            return true;
         }
-        return mK;
+        Merge m = new Merge(base, head, other);
+        Utils.writeContents(target, m.result());
+        return m.conflicted();
     }
 
-    /** removed.
-     * @param c c
-     * @param split split
-     * @return rm
+    /** Writes the file of STEP, a step of a merge, and returns the
+     * id of its new contents, or null if it is to be removed.
+     * @param step step
+     * @param conflicted set if the file conflicts
+     * @return id
      */
-    public Set<Map.Entry<String, String>> removed(Commit c, Commit split) {
-        Set<Map.Entry<String, String>> splitFiles =
-                new HashSet<>(split.getFiles().entrySet());
-        Set<Map.Entry<String, String>> modRM =
-                new HashSet<>(c.getFiles().entrySet());
-        modRM.removeAll(splitFiles);
-
-        Set<Map.Entry<String, String>> rm = new HashSet<>();
-        for (Map.Entry<String, String> e : modRM) {
-            if (!split.getFiles().containsKey(e.getKey())) {
-                rm.add(e);
+    private String applyStep(MergePlan.Step step, AtomicBoolean conflicted)
+            throws IOException {
+        File target = Utils.join(CWD, step.path);
+        if (!step.take()) {
+            target.getParentFile().mkdirs();
+            if (step.head == null || step.other == null) {
+                writeConflict(target, step.head, step.other);
+                conflicted.set(true);
+            } else if (writeMerge(target, step.base, step.head,
+                    step.other)) {
+                conflicted.set(true);
             }
+            return BLOB_STORE.write(target);
+        } else if (step.other == null) {
+            target.delete();
+            return null;
         }
-        return rm;
+        BLOB_STORE.copyTo(step.other, target);
+        return step.other;
     }
 
-    /** mergeCommit.
-     * @param add add
+    /** mergeCommit. Writes the files of PLAN in parallel, then updates
+     * and writes the index once and commits.
+     * @param plan plan
+     * @param o head of the given branch
      * @param branch branch
-     * @param conflictFiles conflictFiles
-     * @param rm rm
-     */
-    public void mergeCommit(Set<String> add, Set<String> rm,
-                            Set<String> conflictFiles,
-                            String branch) throws IOException {
-        Commit o = Utils.readObject(Utils.join(
-                COMMITS, getBranches().get(branch)), Commit.class);
-        String other = o.getID();
-
-        for (String f : add) {
-            checkout(other, f);
-            add(f);
-        }
-
-        for (String f : rm) {
-            remove(f);
-        }
-        LinkedHashMap<String, String> headFiles = getHead().getFiles();
-        LinkedHashMap<String, String> otherFiles = o.getFiles();
-        for (String file : conflictFiles) {
-            String cCont = "";
-            if (headFiles.containsKey(file)) {
-                cCont = Utils.readContentsAsString(
-                        Utils.join(BLOBS, headFiles.get(file)));
-            }
-            String oCont = "";
-            if (otherFiles.containsKey(file)) {
-                oCont = Utils.readContentsAsString(
-                        Utils.join(BLOBS, otherFiles.get(file)));
-            }
-            String replace = "<<<<<<< HEAD\n"
-                    + cCont
-                    + "=======\n"
-                    + oCont
-                    + ">>>>>>>\n";
-            Utils.writeContents(Utils.join(CWD, file), replace);
-            add(file);
+     */
+    public void mergeCommit(MergePlan plan, Commit o, String branch)
+            throws IOException {
+        List<MergePlan.Step> steps = plan.steps();
+        AtomicBoolean conflicted = new AtomicBoolean();
+        List<String> ids = Parallel.map(steps,
+                step -> applyStep(step, conflicted));
+        Index index = getIndex();
+        for (int i = 0; i < steps.size(); i += 1) {
+            String f = steps.get(i).path;
+            if (ids.get(i) == null) {
+                index.remove(f);
+            } else {
+                index.put(f, ids.get(i), Utils.join(CWD, f));
+            }
         }
+        index.write();
         String msg = "Merged " + branch + " into " + getBranch() + ".";
-        LinkedHashMap<String, String> eqv = getEqv();
-        eqv.put(other, getBranch());
-        Utils.writeObject(EQV, eqv);
-        Commit commit = new Commit(msg, getHead().getID(), o.getID());
+        Commit commit = stagedCommit(msg, o.getID());
         saveCommit(commit);
-        if (conflictFiles.size() > 0) {
+        if (conflicted.get()) {
             System.out.println("Encountered a merge conflict.");
         }
     }
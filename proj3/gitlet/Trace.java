@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Accounting of the work done by one command, for finding out why it
+ *  is slow.  While tracing is on, the basic operations (reads and writes
+ *  of whole files and of objects, and hashing) count their calls, the
+ *  bytes they move and the time they take, and the command records the
+ *  time spent in each of its phases.  Tracing is turned on by
+ *  "--trace" before the command, or by setting GITLET_TRACE; given
+ *  "--trace=json", or GITLET_TRACE=json, the summary is printed as one
+ *  line of JSON rather than as a table.  The summary goes to the
+ *  standard error once the command is done.  Under Daemon, GITLET_TRACE
+ *  is read by the client and sent as the flag, so the daemon's own
+ *  environment does not matter.
+ *
+ *  Operations may be counted from any thread; phases only from the
+ *  thread running the command.  When tracing is off, counting costs one
+ *  test of a static field.
+ *  @author Marcus Cheung
+ */
+class Trace {
+
+    /** Nanoseconds per millisecond. */
+    static final double NANOS_PER_MS = 1e6;
+
+    /** Turn tracing on, forgetting anything counted before, with the
+     *  summary printed as JSON iff JSON. */
+    static void begin(boolean json) {
+        _ops.clear();
+        _phases.clear();
+        _json = json;
+        _start = System.nanoTime();
+        _on = true;
+    }
+
+    /** Returns the time at which an operation now starting began, for
+     *  count, or 0 if tracing is off. */
+    static long start() {
+        return _on ? System.nanoTime() : 0;
+    }
+
+    /** Count one call of the operation OP, which began at START and moved
+     *  BYTES bytes. */
+    static void count(String op, long bytes, long start) {
+        if (_on) {
+            long nanos = System.nanoTime() - start;
+            _ops.computeIfAbsent(op, k -> new Counter()).add(bytes, nanos);
+        }
+    }
+
+    /** Returns a phase named NAME, starting now, which is recorded when
+     *  closed. */
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /** Turn tracing off and print to OUT the summary of COMMAND. */
+    static void end(PrintStream out, String command) {
+        if (!_on) {
+            return;
+        }
+        _on = false;
+        double total = (System.nanoTime() - _start) / NANOS_PER_MS;
+        Map<String, Counter> ops = new TreeMap<>(_ops);
+        if (_json) {
+            Formatter f = new Formatter(new StringBuilder(), Locale.ROOT);
+            f.format("{\"command\":%s,\"ms\":%.3f,\"phases\":[",
+                     quote(command), total);
+            String sep = "";
+            for (Map.Entry<String, Double> p : _phases) {
+                f.format("%s{\"name\":%s,\"ms\":%.3f}", sep,
+                         quote(p.getKey()), p.getValue());
+                sep = ",";
+            }
+            f.format("],\"ops\":{");
+            sep = "";
+            for (Map.Entry<String, Counter> e : ops.entrySet()) {
+                Counter c = e.getValue();
+                f.format("%s%s:{\"calls\":%d,\"bytes\":%d,\"ms\":%.3f}",
+                         sep, quote(e.getKey()), c.calls.sum(),
+                         c.bytes.sum(), c.nanos.sum() / NANOS_PER_MS);
+                sep = ",";
+            }
+            f.format("}}");
+            out.println(f);
+        } else {
+            out.printf("trace: %s %.3f ms%n", command, total);
+            for (Map.Entry<String, Double> p : _phases) {
+                out.printf("  phase %-18s %12.3f ms%n", p.getKey(),
+                           p.getValue());
+            }
+            for (Map.Entry<String, Counter> e : ops.entrySet()) {
+                Counter c = e.getValue();
+                out.printf("  %-24s %8d calls %12d bytes %10.3f ms%n",
+                           e.getKey(), c.calls.sum(), c.bytes.sum(),
+                           c.nanos.sum() / NANOS_PER_MS);
+            }
+        }
+        out.flush();
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** A phase of a command, timed from its creation until closed. */
+    static class Phase implements AutoCloseable {
+        /** A phase named NAME, starting now. */
+        Phase(String name) {
+            _name = name;
+            _begun = start();
+        }
+
+        @Override
+        public void close() {
+            if (_on) {
+                _phases.add(Map.entry(_name, (System.nanoTime() - _begun)
+                                      / NANOS_PER_MS));
+            }
+        }
+
+        /** My name. */
+        private final String _name;
+        /** Time at which I began. */
+        private final long _begun;
+    }
+
+    /** The totals of one operation. */
+    private static class Counter {
+        /** Count one call moving N bytes in NANOS nanoseconds. */
+        void add(long n, long nanos) {
+            calls.increment();
+            bytes.add(n);
+            this.nanos.add(nanos);
+        }
+
+        /** Number of calls. */
+        private final LongAdder calls = new LongAdder();
+        /** Bytes moved. */
+        private final LongAdder bytes = new LongAdder();
+        /** Time taken, in nanoseconds. */
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    /** True iff tracing is on. */
+    private static volatile boolean _on;
+    /** True iff the summary is to be JSON. */
+    private static boolean _json;
+    /** Time at which tracing began. */
+    private static long _start;
+    /** Counters, by operation. */
+    private static final Map<String, Counter> _ops =
+        new ConcurrentHashMap<>();
+    /** Finished phases, as name and milliseconds, in order of ending. */
+    private static final List<Map.Entry<String, Double>> _phases =
+        new ArrayList<>();
+
+}
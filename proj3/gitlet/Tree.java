@@ -0,0 +1,342 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/** The contents of one directory of a commit: a map from the names in
+ *  the directory to the ids of blobs, for files, and of trees, for
+ *  subdirectories.  A tree is named by the SHA-1 of its encoding, so a
+ *  directory that is the same in two commits is the same tree, stored
+ *  once, and two snapshots can be compared by comparing the ids of their
+ *  subtrees before looking inside them.  Paths of files in
+ *  subdirectories are written with '/' separators.
+ *
+ *  A tree is encoded, after the Codec header, as
+ *      count(4) { kind(1) name id(20) }*
+ *  with entries sorted by name.
+ *  @author Marcus Cheung
+ */
+class Tree {
+
+    /** Directory holding trees. */
+    static final File TREES = Utils.join(Repo.GITLET, "trees");
+    /** Tree store. */
+    static final LooseStore STORE = new LooseStore(TREES);
+    /** Number of decoded trees kept in memory. */
+    static final int CACHE_SIZE = 4096;
+    /** Decoded trees. */
+    static final ObjectCache<Tree> CACHE = new ObjectCache<>(CACHE_SIZE);
+    /** Kind of an entry for a file. */
+    static final byte BLOB = 0;
+    /** Kind of an entry for a subdirectory. */
+    static final byte DIR = 1;
+    /** Separator of the components of a path. */
+    static final char SEPARATOR = '/';
+
+    /** A tree with entries ENTRIES. */
+    private Tree(SortedMap<String, Entry> entries) {
+        _entries = entries;
+    }
+
+    /** Returns the tree named ID. */
+    static Tree read(String id) {
+        return CACHE.get(id, k -> decode(STORE.read(k)));
+    }
+
+    /** Store the trees of a snapshot holding FILES, a map from paths to
+     *  blob ids, writing only those not already stored, and return the
+     *  id of the root. */
+    static String write(Map<String, String> files) {
+        return write(new TreeMap<>(files), "");
+    }
+
+    /** Store the trees for the directory whose path, with a trailing
+     *  separator unless it is the root, is PREFIX, given FILES, which
+     *  holds exactly the files under it in order of path, and return the
+     *  id of its tree. */
+    private static String write(SortedMap<String, String> files,
+                                String prefix) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        while (!files.isEmpty()) {
+            String path = files.firstKey();
+            String rest = path.substring(prefix.length());
+            int sep = rest.indexOf(SEPARATOR);
+            if (sep < 0) {
+                entries.put(rest, new Entry(BLOB, files.get(path)));
+                files = files.tailMap(path + "\0");
+            } else {
+                String dir = path.substring(0, prefix.length() + sep + 1);
+                String end = dir.substring(0, dir.length() - 1)
+                    + (char) (SEPARATOR + 1);
+                entries.put(rest.substring(0, sep),
+                            new Entry(DIR,
+                                      write(files.subMap(dir, end), dir)));
+                files = files.tailMap(end);
+            }
+        }
+        Tree tree = new Tree(entries);
+        String id = STORE.write(tree.encode());
+        CACHE.put(id, tree);
+        return id;
+    }
+
+    /** Add to RESULT each file of the tree named ID, with its path
+     *  prefixed by PREFIX. */
+    static void flatten(String id, String prefix, Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(id)._entries.entrySet()) {
+            String path = prefix + e.getKey();
+            Entry entry = e.getValue();
+            if (entry.kind == DIR) {
+                flatten(entry.id, path + SEPARATOR, result);
+            } else {
+                result.put(path, entry.id);
+            }
+        }
+    }
+
+    /** Returns the id of the blob or tree at PATH in the tree named ID,
+     *  or null if there is none.  Only the trees along PATH are read. */
+    static String lookup(String id, String path) {
+        int start = 0;
+        while (id != null) {
+            int end = path.indexOf(SEPARATOR, start);
+            Entry e = read(id)._entries.get(
+                path.substring(start, end < 0 ? path.length() : end));
+            if (e == null || end >= 0 && e.kind != DIR) {
+                return null;
+            } else if (end < 0) {
+                return e.id;
+            }
+            id = e.id;
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /** Add to SEEN the tree named ID and every tree below it that is not
+     *  already in SEEN, and pass each blob of the trees added to BLOBS.
+     *  Trees already in SEEN are not read. */
+    static void reachable(String id, Set<String> seen,
+                          Consumer<String> blobs) {
+        ArrayDeque<String> work = new ArrayDeque<>();
+        if (seen.add(id)) {
+            work.push(id);
+        }
+        while (!work.isEmpty()) {
+            for (Entry e : read(work.pop())._entries.values()) {
+                if (e.kind == BLOB) {
+                    blobs.accept(e.id);
+                } else if (seen.add(e.id)) {
+                    work.push(e.id);
+                }
+            }
+        }
+    }
+
+    /** Pass the id of each subtree of the tree encoded in DATA to TREES
+     *  and of each of its files to BLOBS. */
+    static void entries(byte[] data, Consumer<String> trees,
+                        Consumer<String> blobs) {
+        decode(data).entries(trees, blobs);
+    }
+
+    /** Pass the id of each subtree of the tree named ID to TREES and of
+     *  each of its files to BLOBS. */
+    static void entries(String id, Consumer<String> trees,
+                        Consumer<String> blobs) {
+        read(id).entries(trees, blobs);
+    }
+
+    /** Pass the id of each of my subtrees to TREES and of each of my
+     *  files to BLOBS. */
+    private void entries(Consumer<String> trees, Consumer<String> blobs) {
+        for (Entry e : _entries.values()) {
+            (e.kind == DIR ? trees : blobs).accept(e.id);
+        }
+    }
+
+    /** Returns a map from each path whose blob differs between the trees
+     *  named FROM and TO to its blob in TO, or to null if TO lacks it, in
+     *  order of path.  Subtrees with equal ids are not read. */
+    static TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    /** Add to RESULT the differences, as for diff(FROM, TO), between the
+     *  trees named FROM and TO, either of which may be null for an empty
+     *  tree, with paths prefixed by PREFIX. */
+    private static void diff(String from, String to, String prefix,
+                             Map<String, String> result) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Map<String, Entry> a = from == null ? Collections.emptyMap()
+            : read(from)._entries;
+        Map<String, Entry> b = to == null ? Collections.emptyMap()
+            : read(to)._entries;
+        TreeMap<String, Entry> names = new TreeMap<>(a);
+        names.putAll(b);
+        for (String name : names.keySet()) {
+            Entry x = a.get(name), y = b.get(name);
+            if (Objects.equals(x, y)) {
+                continue;
+            }
+            String path = prefix + name;
+            String subPrefix = path + SEPARATOR;
+            diff(x != null && x.kind == DIR ? x.id : null,
+                 y != null && y.kind == DIR ? y.id : null,
+                 subPrefix, result);
+            if (y != null && y.kind == BLOB) {
+                result.put(path, y.id);
+            } else if (x != null && x.kind == BLOB) {
+                result.put(path, null);
+            }
+        }
+    }
+
+    /** Pass to STEPS a step for each path whose blob in the tree named
+     *  OTHER differs both from that in the tree named BASE and from that
+     *  in the tree named HEAD, with those three blobs; any of the trees
+     *  may be null for an empty tree.  The three trees are walked
+     *  together, each directory's entries in order of name, and
+     *  subtrees that OTHER shares with BASE or with HEAD are not
+     *  read. */
+    static void merge(String base, String head, String other,
+                      Consumer<MergePlan.Step> steps) {
+        merge(base, head, other, "", steps);
+    }
+
+    /** Pass to STEPS the steps, as for merge(BASE, HEAD, OTHER, STEPS),
+     *  for the files under the trees named BASE, HEAD and OTHER, with
+     *  paths prefixed by PREFIX. */
+    private static void merge(String base, String head, String other,
+                              String prefix,
+                              Consumer<MergePlan.Step> steps) {
+        if (Objects.equals(other, base) || Objects.equals(other, head)) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> ia = iterator(base),
+            ib = iterator(head), ic = iterator(other);
+        Map.Entry<String, Entry> a = next(ia), b = next(ib), c = next(ic);
+        while (a != null || b != null || c != null) {
+            String name = least(least(least(null, a), b), c);
+            Entry x = null, y = null, z = null;
+            if (a != null && a.getKey().equals(name)) {
+                x = a.getValue();
+                a = next(ia);
+            }
+            if (b != null && b.getKey().equals(name)) {
+                y = b.getValue();
+                b = next(ib);
+            }
+            if (c != null && c.getKey().equals(name)) {
+                z = c.getValue();
+                c = next(ic);
+            }
+            if (Objects.equals(z, x) || Objects.equals(z, y)) {
+                continue;
+            }
+            String path = prefix + name;
+            String bx = id(x, BLOB), by = id(y, BLOB), bz = id(z, BLOB);
+            if (!Objects.equals(bz, bx) && !Objects.equals(bz, by)) {
+                steps.accept(new MergePlan.Step(path, bx, by, bz));
+            }
+            merge(id(x, DIR), id(y, DIR), id(z, DIR), path + SEPARATOR,
+                  steps);
+        }
+    }
+
+    /** Returns an iterator over the entries of the tree named ID, or over
+     *  none if ID is null. */
+    private static Iterator<Map.Entry<String, Entry>> iterator(String id) {
+        Map<String, Entry> entries = id == null ? Collections.emptyMap()
+            : read(id)._entries;
+        return entries.entrySet().iterator();
+    }
+
+    /** Returns the next entry of IT, or null if there is none. */
+    private static Map.Entry<String, Entry> next(
+        Iterator<Map.Entry<String, Entry>> it) {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /** Returns the lesser of NAME, which may be null, and the name of
+     *  ENTRY, if it is not null. */
+    private static String least(String name, Map.Entry<String, Entry> entry) {
+        if (entry == null || name != null
+            && name.compareTo(entry.getKey()) <= 0) {
+            return name;
+        }
+        return entry.getKey();
+    }
+
+    /** Returns the id of ENTRY if it is of kind KIND, and otherwise
+     *  null. */
+    private static String id(Entry entry, byte kind) {
+        return entry != null && entry.kind == kind ? entry.id : null;
+    }
+
+    /** Returns my encoding. */
+    private byte[] encode() {
+        return Codec.encode(Codec.TREE, out -> {
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                out.writeByte(e.getValue().kind);
+                Codec.writeString(out, e.getKey());
+                Codec.writeId(out, e.getValue().id);
+            }
+        });
+    }
+
+    /** Returns the tree encoded in DATA. */
+    private static Tree decode(byte[] data) {
+        ByteBuffer in = Codec.open(data, Codec.TREE);
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            byte kind = in.get();
+            String name = Codec.readString(in);
+            entries.put(name, new Entry(kind, Codec.readId(in)));
+        }
+        return new Tree(entries);
+    }
+
+    /** One name in a tree. */
+    private static class Entry {
+        /** An entry of kind KIND for the object ID. */
+        Entry(byte kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Entry && ((Entry) obj).kind == kind
+                && ((Entry) obj).id.equals(id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        /** BLOB or DIR. */
+        private final byte kind;
+        /** Id of the blob or tree. */
+        private final String id;
+    }
+
+    /** Map from names to entries, in order of name. */
+    private final SortedMap<String, Entry> _entries;
+
+}